@@ -0,0 +1,373 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFTextBox;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Generated local corpus for the benchmarks, so they run without an Autopsy
+ * case or any external data.
+ * <p>
+ * Running the class writes one DOCX, XLSX, PPTX and PDF file per language and
+ * size to the given directory. The text is built deterministically from a
+ * handful of sentences per language, so every run measures the same input.
+ * The POI and PDFBox classes used to write the files ship inside tika-app.
+ */
+public final class BenchmarkCorpus {
+
+    /**
+     * System property naming the corpus directory.
+     */
+    static final String CORPUS_DIR_PROPERTY = "benchmark.corpus.dir"; //NON-NLS
+
+    /**
+     * Ingest job identifier the benchmarks acquire the language model pool
+     * with.
+     */
+    static final long BENCHMARK_JOB_ID = -1;
+
+    /**
+     * Document formats in the corpus.
+     */
+    public enum Format {
+        DOCX, XLSX, PPTX, PDF
+    }
+
+    /**
+     * Document sizes in the corpus, by number of characters of text.
+     */
+    public enum Size {
+        SMALL(2000), MEDIUM(50000), LARGE(500000);
+
+        private final int characters;
+
+        private Size(int characters) {
+            this.characters = characters;
+        }
+    }
+
+    private static final int PDF_LINE_LENGTH = 95;
+    private static final int PDF_LINES_PER_PAGE = 60;
+    private static final int PPTX_CHARACTERS_PER_SLIDE = 1500;
+
+    // Latin script only, so the text can be written with the standard PDF
+    // fonts.
+    private static final Map<String, String[]> SENTENCES = new LinkedHashMap<>();
+
+    static {
+        SENTENCES.put("en", new String[]{ //NON-NLS
+            "The committee met on Tuesday to review the budget for the coming year.",
+            "Several members asked for more detail on the cost of the new warehouse.",
+            "After a long discussion the proposal was sent back to the finance team.",
+            "Delivery times have improved since the second distribution centre opened.",
+            "Please send the signed contract to the legal department before Friday.",
+            "Our customers expect clear answers and quick support when something goes wrong."});
+        SENTENCES.put("de", new String[]{ //NON-NLS
+            "Der Ausschuss traf sich am Dienstag, um den Haushalt für das kommende Jahr zu prüfen.",
+            "Mehrere Mitglieder baten um genauere Angaben zu den Kosten des neuen Lagers.",
+            "Nach einer langen Diskussion wurde der Vorschlag an die Finanzabteilung zurückgegeben.",
+            "Die Lieferzeiten haben sich seit der Eröffnung des zweiten Verteilzentrums verbessert.",
+            "Bitte senden Sie den unterschriebenen Vertrag vor Freitag an die Rechtsabteilung.",
+            "Unsere Kunden erwarten klare Antworten und schnelle Hilfe, wenn etwas schiefgeht."});
+        SENTENCES.put("fr", new String[]{ //NON-NLS
+            "Le comité s'est réuni mardi pour examiner le budget de l'année prochaine.",
+            "Plusieurs membres ont demandé plus de détails sur le coût du nouvel entrepôt.",
+            "Après une longue discussion, la proposition a été renvoyée à l'équipe financière.",
+            "Les délais de livraison se sont améliorés depuis l'ouverture du deuxième centre.",
+            "Veuillez envoyer le contrat signé au service juridique avant vendredi.",
+            "Nos clients attendent des réponses claires et une aide rapide en cas de problème."});
+        SENTENCES.put("es", new String[]{ //NON-NLS
+            "El comité se reunió el martes para revisar el presupuesto del próximo año.",
+            "Varios miembros pidieron más detalles sobre el coste del nuevo almacén.",
+            "Después de una larga discusión, la propuesta se devolvió al equipo de finanzas.",
+            "Los plazos de entrega han mejorado desde que abrió el segundo centro de distribución.",
+            "Por favor, envíe el contrato firmado al departamento jurídico antes del viernes.",
+            "Nuestros clientes esperan respuestas claras y una ayuda rápida cuando algo falla."});
+        SENTENCES.put("it", new String[]{ //NON-NLS
+            "Il comitato si è riunito martedì per esaminare il bilancio del prossimo anno.",
+            "Diversi membri hanno chiesto maggiori dettagli sul costo del nuovo magazzino.",
+            "Dopo una lunga discussione la proposta è stata rinviata al gruppo finanziario.",
+            "I tempi di consegna sono migliorati da quando ha aperto il secondo centro di distribuzione.",
+            "Si prega di inviare il contratto firmato all'ufficio legale entro venerdì.",
+            "I nostri clienti si aspettano risposte chiare e un aiuto rapido quando qualcosa non va."});
+        SENTENCES.put("nl", new String[]{ //NON-NLS
+            "De commissie kwam dinsdag bijeen om de begroting voor het komende jaar te bespreken.",
+            "Verschillende leden vroegen om meer details over de kosten van het nieuwe magazijn.",
+            "Na een lange discussie werd het voorstel teruggestuurd naar het financiële team.",
+            "De levertijden zijn verbeterd sinds het tweede distributiecentrum is geopend.",
+            "Stuur het ondertekende contract voor vrijdag naar de juridische afdeling.",
+            "Onze klanten verwachten duidelijke antwoorden en snelle hulp als er iets misgaat."});
+        SENTENCES.put("pt", new String[]{ //NON-NLS
+            "O comitê reuniu-se na terça-feira para analisar o orçamento do próximo ano.",
+            "Vários membros pediram mais detalhes sobre o custo do novo armazém.",
+            "Depois de uma longa discussão, a proposta foi devolvida à equipe financeira.",
+            "Os prazos de entrega melhoraram desde a abertura do segundo centro de distribuição.",
+            "Por favor, envie o contrato assinado ao departamento jurídico antes de sexta-feira.",
+            "Os nossos clientes esperam respostas claras e ajuda rápida quando algo corre mal."});
+        SENTENCES.put("sv", new String[]{ //NON-NLS
+            "Kommittén sammanträdde på tisdagen för att granska budgeten för nästa år.",
+            "Flera ledamöter bad om mer information om kostnaden för det nya lagret.",
+            "Efter en lång diskussion skickades förslaget tillbaka till ekonomiavdelningen.",
+            "Leveranstiderna har blivit kortare sedan det andra distributionscentret öppnade.",
+            "Skicka det undertecknade avtalet till juridiska avdelningen före fredag.",
+            "Våra kunder förväntar sig tydliga svar och snabb hjälp när något går fel."});
+    }
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Writes the corpus.
+     *
+     * @param args The output directory.
+     *
+     * @throws IOException If a file could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: BenchmarkCorpus <output directory>"); //NON-NLS
+            System.exit(2);
+        }
+        File corpusDir = new File(args[0]);
+        for (Size size : Size.values()) {
+            File sizeDir = new File(corpusDir, size.name().toLowerCase(Locale.ROOT));
+            if (!sizeDir.isDirectory() && !sizeDir.mkdirs()) {
+                throw new IOException("Unable to create " + sizeDir); //NON-NLS
+            }
+            for (String language : getLanguages()) {
+                List<String> paragraphs = paragraphs(language, size);
+                for (Format format : Format.values()) {
+                    try (OutputStream out = new BufferedOutputStream(
+                            new FileOutputStream(file(corpusDir, format, size, language)))) {
+                        write(format, paragraphs, out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the ISO codes of the languages in the corpus.
+     *
+     * @return The language codes.
+     */
+    static List<String> getLanguages() {
+        return new ArrayList<>(SENTENCES.keySet());
+    }
+
+    /**
+     * Reads the documents of one format and size, one per language.
+     *
+     * @param format The document format.
+     * @param size   The document size.
+     *
+     * @return The document contents.
+     *
+     * @throws IOException If the corpus has not been generated.
+     */
+    static List<byte[]> load(Format format, Size size) throws IOException {
+        String dir = System.getProperty(CORPUS_DIR_PROPERTY);
+        if (dir == null) {
+            throw new IOException("The " + CORPUS_DIR_PROPERTY + " system property is not set"); //NON-NLS
+        }
+        List<byte[]> documents = new ArrayList<>();
+        for (String language : getLanguages()) {
+            documents.add(Files.readAllBytes(file(new File(dir), format, size, language).toPath()));
+        }
+        return documents;
+    }
+
+    /**
+     * Gets the plain text of the document of one language and size, as it
+     * would be extracted from any of its formats.
+     *
+     * @param language The language code.
+     * @param size     The document size.
+     *
+     * @return The text.
+     */
+    static String text(String language, Size size) {
+        StringBuilder text = new StringBuilder(size.characters + 1024);
+        for (String paragraph : paragraphs(language, size)) {
+            text.append(paragraph).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static File file(File corpusDir, Format format, Size size, String language) {
+        return new File(new File(corpusDir, size.name().toLowerCase(Locale.ROOT)),
+                language + "." + format.name().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Builds paragraphs of four to eight sentences picked with a fixed seed
+     * until the size is reached.
+     */
+    private static List<String> paragraphs(String language, Size size) {
+        String[] sentences = SENTENCES.get(language);
+        Random random = new Random(language.hashCode() * 31L + size.ordinal());
+        List<String> paragraphs = new ArrayList<>();
+        int length = 0;
+        while (length < size.characters) {
+            StringBuilder paragraph = new StringBuilder();
+            int count = 4 + random.nextInt(5);
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    paragraph.append(' ');
+                }
+                paragraph.append(sentences[random.nextInt(sentences.length)]);
+            }
+            paragraphs.add(paragraph.toString());
+            length += paragraph.length() + 1;
+        }
+        return paragraphs;
+    }
+
+    private static void write(Format format, List<String> paragraphs, OutputStream out) throws IOException {
+        switch (format) {
+            case DOCX:
+                writeDocx(paragraphs, out);
+                break;
+            case XLSX:
+                writeXlsx(paragraphs, out);
+                break;
+            case PPTX:
+                writePptx(paragraphs, out);
+                break;
+            case PDF:
+                writePdf(paragraphs, out);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format); //NON-NLS
+        }
+    }
+
+    private static void writeDocx(List<String> paragraphs, OutputStream out) throws IOException {
+        XWPFDocument document = new XWPFDocument();
+        for (String paragraph : paragraphs) {
+            document.createParagraph().createRun().setText(paragraph);
+        }
+        document.write(out);
+    }
+
+    private static void writeXlsx(List<String> paragraphs, OutputStream out) throws IOException {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet("Text"); //NON-NLS
+        for (int i = 0; i < paragraphs.size(); i++) {
+            sheet.createRow(i).createCell(0).setCellValue(paragraphs.get(i));
+        }
+        workbook.write(out);
+    }
+
+    private static void writePptx(List<String> paragraphs, OutputStream out) throws IOException {
+        XMLSlideShow slideShow = new XMLSlideShow();
+        XSLFTextBox textBox = null;
+        int slideLength = PPTX_CHARACTERS_PER_SLIDE;
+        for (String paragraph : paragraphs) {
+            if (slideLength >= PPTX_CHARACTERS_PER_SLIDE) {
+                textBox = slideShow.createSlide().createTextBox();
+                textBox.setAnchor(new java.awt.Rectangle(40, 40, 640, 460));
+                slideLength = 0;
+            }
+            textBox.addNewTextParagraph().addNewTextRun().setText(paragraph);
+            slideLength += paragraph.length();
+        }
+        slideShow.write(out);
+    }
+
+    private static void writePdf(List<String> paragraphs, OutputStream out) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDPageContentStream content = null;
+            int line = PDF_LINES_PER_PAGE;
+            for (String paragraph : paragraphs) {
+                for (String text : wrap(paragraph, PDF_LINE_LENGTH)) {
+                    if (line == PDF_LINES_PER_PAGE) {
+                        if (content != null) {
+                            content.endText();
+                            content.close();
+                        }
+                        PDPage page = new PDPage();
+                        document.addPage(page);
+                        content = new PDPageContentStream(document, page);
+                        content.beginText();
+                        content.setFont(PDType1Font.HELVETICA, 10);
+                        content.setLeading(12);
+                        content.newLineAtOffset(50, 740);
+                        line = 0;
+                    }
+                    content.showText(text);
+                    content.newLine();
+                    line++;
+                }
+            }
+            if (content != null) {
+                content.endText();
+                content.close();
+            }
+            document.save(out);
+        }
+    }
+
+    private static List<String> wrap(String paragraph, int lineLength) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (paragraph.length() - start > lineLength) {
+            int end = paragraph.lastIndexOf(' ', start + lineLength);
+            if (end <= start) {
+                end = start + lineLength;
+            }
+            lines.add(paragraph.substring(start, end));
+            start = (paragraph.charAt(end) == ' ') ? end + 1 : end;
+        }
+        lines.add(paragraph.substring(start));
+        return lines;
+    }
+}
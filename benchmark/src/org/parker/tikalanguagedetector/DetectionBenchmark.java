@@ -0,0 +1,135 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures language detection per file on already extracted text: the full
+ * text versus prefix samples, each in one pass and incrementally with the
+ * default stability rule.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DetectionBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public BenchmarkCorpus.Size size;
+
+    /**
+     * Number of characters from the start of the text that are detected on,
+     * 0 for the full text.
+     */
+    @Param({"0", "1000", "10000"})
+    public int sampleCharacters;
+
+    private final List<char[]> texts = new ArrayList<>();
+    private int next = 0;
+    private LanguageDetector detector;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (String language : BenchmarkCorpus.getLanguages()) {
+            texts.add(BenchmarkCorpus.text(language, size).toCharArray());
+        }
+        LanguageModelPool.acquire(BenchmarkCorpus.BENCHMARK_JOB_ID);
+        detector = LanguageModelPool.newDetector();
+    }
+
+    @TearDown
+    public void tearDown() {
+        LanguageModelPool.release(BenchmarkCorpus.BENCHMARK_JOB_ID);
+    }
+
+    /**
+     * Detects on the whole sample in one pass.
+     */
+    @Benchmark
+    public LanguageResult singlePassDetection() {
+        char[] text = nextText();
+        detector.reset();
+        detector.addText(text, 0, sampleLength(text));
+        return detector.detect();
+    }
+
+    /**
+     * Detects chunk by chunk and stops as soon as the result has settled.
+     */
+    @Benchmark
+    public LanguageResult incrementalDetection() {
+        char[] text = nextText();
+        int length = sampleLength(text);
+        int chunkSize = LanguageDetectionSettings.DEFAULT_CHUNK_SIZE;
+        LanguageStabilityTracker tracker = new LanguageStabilityTracker(
+                LanguageDetectionSettings.DEFAULT_CONFIDENCE_THRESHOLD,
+                LanguageDetectionSettings.DEFAULT_STABLE_MARGIN,
+                LanguageDetectionSettings.DEFAULT_STABLE_CHUNKS);
+        detector.reset();
+        for (int offset = 0; offset < length; offset += chunkSize) {
+            detector.addText(text, offset, Math.min(chunkSize, length - offset));
+            if (tracker.update(LanguageModelPool.detectIncrementally(detector))) {
+                break;
+            }
+        }
+        return (tracker.getSettledResult() != null) ? tracker.getSettledResult() : detector.detect();
+    }
+
+    private char[] nextText() {
+        char[] text = texts.get(next);
+        next = (next + 1) % texts.size();
+        return text;
+    }
+
+    private int sampleLength(char[] text) {
+        return (sampleCharacters > 0) ? Math.min(sampleCharacters, text.length) : text.length;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures detection throughput on a single thread against all cores, with
+ * one detector shared under a lock versus one pool detector per thread.
+ * Every operation detects on the default sample size of one document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectorConcurrencyBenchmark {
+
+    /**
+     * The samples and the detector shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedState {
+
+        final List<char[]> samples = new ArrayList<>();
+        LanguageDetector sharedDetector;
+
+        @Setup
+        public void setUp() throws IOException {
+            for (String language : BenchmarkCorpus.getLanguages()) {
+                String text = BenchmarkCorpus.text(language, BenchmarkCorpus.Size.MEDIUM);
+                samples.add(text.substring(0, Math.min(text.length(),
+                        LanguageDetectionSettings.DEFAULT_MAX_CHARACTERS)).toCharArray());
+            }
+            LanguageModelPool.acquire(BenchmarkCorpus.BENCHMARK_JOB_ID);
+            sharedDetector = LanguageModelPool.newDetector();
+        }
+
+        @TearDown
+        public void tearDown() {
+            LanguageModelPool.release(BenchmarkCorpus.BENCHMARK_JOB_ID);
+        }
+    }
+
+    /**
+     * The pool detector and sample position of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        LanguageDetector detector;
+        int next = 0;
+
+        @Setup
+        public void setUp(SharedState shared) {
+            detector = LanguageModelPool.newDetector();
+        }
+
+        char[] nextSample(SharedState shared) {
+            char[] sample = shared.samples.get(next);
+            next = (next + 1) % shared.samples.size();
+            return sample;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public LanguageResult singleThread(SharedState shared, ThreadState thread) {
+        return detect(thread.detector, thread.nextSample(shared));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public LanguageResult sharedDetector(SharedState shared, ThreadState thread) {
+        char[] sample = thread.nextSample(shared);
+        synchronized (shared.sharedDetector) {
+            return detect(shared.sharedDetector, sample);
+        }
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public LanguageResult perThreadDetector(SharedState shared, ThreadState thread) {
+        return detect(thread.detector, thread.nextSample(shared));
+    }
+
+    private static LanguageResult detect(LanguageDetector detector, char[] sample) {
+        detector.reset();
+        detector.addText(sample, 0, sample.length);
+        return detector.detect();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.parser.AutoDetectParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Measures text extraction per file: bounded versus full extraction, the
+ * trimmed parser of the registry versus the full Tika configuration, and a
+ * shared parser versus a parser constructed for every file. The reuse
+ * comparison uses the full configuration in both arms, so that it is not
+ * confounded with the trimming.
+ * <p>
+ * Each operation parses the next document of the selected format and size,
+ * cycling through the corpus languages, so throughput is in files per second
+ * and the gc profiler's normalized allocation rate is in bytes per file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtractionBenchmark {
+
+    @Param({"DOCX", "XLSX", "PPTX", "PDF"})
+    public BenchmarkCorpus.Format format;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public BenchmarkCorpus.Size size;
+
+    private List<byte[]> documents;
+    private int next = 0;
+    private AutoDetectParser sharedParser;
+    private AutoDetectParser sharedFullParser;
+    private LanguageDetector detector;
+
+    @Setup
+    public void setUp() throws IOException, TikaException {
+        documents = BenchmarkCorpus.load(format, size);
+        sharedParser = TikaParserRegistry.getParser(Collections.<String>emptyList());
+        sharedFullParser = TikaParserRegistry.getFullParser();
+        LanguageModelPool.acquire(BenchmarkCorpus.BENCHMARK_JOB_ID);
+        detector = LanguageModelPool.newDetector();
+    }
+
+    @TearDown
+    public void tearDown() {
+        LanguageModelPool.release(BenchmarkCorpus.BENCHMARK_JOB_ID);
+    }
+
+    /**
+     * Extracts up to the default character budget with the shared parser,
+     * as the module does.
+     */
+    @Benchmark
+    public long boundedExtraction() throws IOException, SAXException, TikaException {
+        return extract(sharedParser, LanguageDetectionSettings.DEFAULT_MAX_CHARACTERS);
+    }
+
+    /**
+     * Extracts the whole text with the shared parser.
+     */
+    @Benchmark
+    public long fullExtraction() throws IOException, SAXException, TikaException {
+        return extract(sharedParser, -1);
+    }
+
+    /**
+     * Extracts up to the default character budget with the shared parser
+     * built from the full Tika configuration. Against boundedExtraction this
+     * measures the trimming, against perFileParserExtraction the reuse.
+     */
+    @Benchmark
+    public long sharedFullParserExtraction() throws IOException, SAXException, TikaException {
+        return extract(sharedFullParser, LanguageDetectionSettings.DEFAULT_MAX_CHARACTERS);
+    }
+
+    /**
+     * Extracts up to the default character budget with a new parser built
+     * from the full Tika configuration for every file.
+     */
+    @Benchmark
+    public long perFileParserExtraction() throws IOException, SAXException, TikaException {
+        return extract(new AutoDetectParser(), LanguageDetectionSettings.DEFAULT_MAX_CHARACTERS);
+    }
+
+    private long extract(AutoDetectParser parser, int maxCharacters) throws IOException, SAXException, TikaException {
+        byte[] document = documents.get(next);
+        next = (next + 1) % documents.size();
+        detector.reset();
+        LanguageSamplingContentHandler handler = new LanguageSamplingContentHandler(detector,
+                maxCharacters, LanguageDetectionSettings.DEFAULT_CHUNK_SIZE,
+                new LanguageStabilityTracker(Float.MAX_VALUE, 0.0f, 0), false, -1);
+        LanguageDetectionCore.parseExample(parser, new ByteArrayInputStream(document), handler);
+        return handler.getCharactersSeen();
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+import org.apache.tika.parser.AutoDetectParser;
+import org.xml.sax.SAXException;
+
+/**
+ * Headless batch language detector for file sets exported to disk, run
+ * without an Autopsy case. It and the classes it uses depend only on Tika,
+ * which bundles the Optimaize detector, and not on Autopsy or the NetBeans
+ * platform.
+ * <p>
+ * The given directory trees are walked in parallel by a fork-join pool, and
+ * each document is handed to the same {@link LanguageDetectionCore} the
+ * ingest module uses. One result per file is streamed to the output as JSON
+ * Lines or CSV while the walk is running. The per part languages of embedded
+ * documents are only written as JSON Lines.
+ * <p>
+ * With a checkpoint file, the path of every finished file is appended to it
+ * once its result has been flushed to the output. Files whose parse never
+ * started, or was interrupted, are reported but left out of the checkpoint,
+ * so a resumed run tries them again. A restarted run skips the
+ * files listed in the checkpoint and appends to the existing output, so a
+ * crash costs at most the files of the last unflushed batch, whose results
+ * may then appear twice.
+ */
+public final class BatchLanguageDetector {
+
+    // Plain java.util.logging, as the batch detector runs without Autopsy.
+    private static final Logger logger = Logger.getLogger(BatchLanguageDetector.class.getName());
+
+    private static final String USAGE = "Usage: BatchLanguageDetector [options] <directory>...\n" //NON-NLS
+            + "  --format jsonl|csv        Output format, jsonl by default\n" //NON-NLS
+            + "  --output <file>           Output file, standard output by default\n" //NON-NLS
+            + "  --checkpoint <file>       Checkpoint file to resume from and append to\n" //NON-NLS
+            + "  --threads <n>             Number of worker threads, one per core by default\n" //NON-NLS
+            + "  --max-characters <n>      Number of characters detected on per file\n" //NON-NLS
+            + "  --sample-document         Sample the start, middle and end of documents\n" //NON-NLS
+            + "  --embedded inline|per-part|skip\n" //NON-NLS
+            + "                            Detect embedded documents with the container,\n" //NON-NLS
+            + "                            on their own, or not at all; inline by default\n" //NON-NLS
+            + "  --languages <codes>       Comma separated ISO codes of the candidate languages\n" //NON-NLS
+            + "  --min-confidence <score>  Report languages scored lower as undetermined\n" //NON-NLS
+            + "  --short-text              Use the short text algorithm for all text\n" //NON-NLS
+            + "  --segment                 Report the language spans of mixed-language documents\n" //NON-NLS
+            + "  --all-parsers             Use every parser of the Tika configuration\n"; //NON-NLS
+
+    /**
+     * Ingest job identifier the batch run acquires the language model pool
+     * and records its metrics with.
+     */
+    private static final long BATCH_JOB_ID = -2;
+
+    // Results are flushed, and the checkpoint extended, after this many files.
+    private static final int FLUSH_INTERVAL = 500;
+
+    private final LanguageDetectionCore core;
+    private final DocumentTypeFilter documentFilter;
+    private final ResultWriter resultWriter;
+    private final Set<String> finishedPaths;
+    private final IngestJobMetrics metrics = IngestJobMetrics.forJob(BATCH_JOB_ID);
+    private final AtomicLong filesFinished = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+
+    // Each worker thread keeps its own detector over the shared model.
+    private final ThreadLocal<LanguageDetector> detectors = new ThreadLocal<LanguageDetector>() {
+        @Override
+        protected LanguageDetector initialValue() {
+            return core.newDetector();
+        }
+    };
+
+    // The sniff buffer of each worker thread.
+    private final ThreadLocal<byte[]> headers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[DocumentTypeFilter.SNIFF_LENGTH];
+        }
+    };
+
+    private BatchLanguageDetector(LanguageDetectionCore core, ResultWriter resultWriter,
+            Set<String> finishedPaths) {
+        this.core = core;
+        this.documentFilter = new DocumentTypeFilter(core.getSettings().getMimeTypes());
+        this.resultWriter = resultWriter;
+        this.finishedPaths = finishedPaths;
+    }
+
+    /**
+     * Runs the batch detector.
+     *
+     * @param args The command line arguments, see the usage message.
+     *
+     * @throws Exception If the run could not be completed.
+     */
+    public static void main(String[] args) throws Exception {
+        LanguageDetectionSettings settings = new LanguageDetectionSettings();
+        String format = "jsonl"; //NON-NLS
+        File outputFile = null;
+        File checkpointFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> roots = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format": //NON-NLS
+                        format = args[++i].toLowerCase(Locale.ROOT);
+                        break;
+                    case "--output": //NON-NLS
+                        outputFile = new File(args[++i]);
+                        break;
+                    case "--checkpoint": //NON-NLS
+                        checkpointFile = new File(args[++i]);
+                        break;
+                    case "--threads": //NON-NLS
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-characters": //NON-NLS
+                        settings.setMaxCharacters(Integer.parseInt(args[++i]));
+                        break;
+                    case "--sample-document": //NON-NLS
+                        settings.setSampleDocument(true);
+                        break;
+                    case "--embedded": //NON-NLS
+                        settings.setEmbeddedMode(LanguageDetectionSettings.EmbeddedMode.valueOf(
+                                args[++i].toUpperCase(Locale.ROOT).replace('-', '_')));
+                        break;
+                    case "--languages": //NON-NLS
+                        settings.setCandidateLanguages(Arrays.asList(args[++i].split(","))); //NON-NLS
+                        break;
+                    case "--min-confidence": //NON-NLS
+                        settings.setMinConfidence(Float.parseFloat(args[++i]));
+                        break;
+                    case "--short-text": //NON-NLS
+                        settings.setShortTextMode(true);
+                        break;
+                    case "--segment": //NON-NLS
+                        settings.setSegmentDocument(true);
+                        break;
+                    case "--all-parsers": //NON-NLS
+                        settings.setUseAllParsers(true);
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) { //NON-NLS
+                            throw new IllegalArgumentException("Unknown option " + args[i]); //NON-NLS
+                        }
+                        roots.add(Paths.get(args[i]));
+                }
+            }
+            if (roots.isEmpty() || threads < 1 || !(format.equals("jsonl") || format.equals("csv"))) { //NON-NLS
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Set<String> finishedPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        if (checkpointFile != null && checkpointFile.isFile()) {
+            finishedPaths.addAll(readCheckpoint(checkpointFile));
+        }
+        int resumedFiles = finishedPaths.size();
+
+        AutoDetectParser parser = settings.useAllParsers()
+                ? TikaParserRegistry.getFullParser()
+                : TikaParserRegistry.getParser(settings.getExtraParserClasses());
+        LanguageModelPool.acquire(BATCH_JOB_ID, settings.getCandidateLanguages(), settings.shortTextMode());
+        long startTime = System.nanoTime();
+        try (ResultWriter resultWriter = new ResultWriter(outputFile, checkpointFile,
+                format.equals("csv"), resumedFiles > 0)) { //NON-NLS
+            BatchLanguageDetector batch = new BatchLanguageDetector(
+                    new LanguageDetectionCore(settings, parser), resultWriter, finishedPaths);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (Path root : roots) {
+                    pool.invoke(batch.new DirectoryTask(root));
+                }
+            } finally {
+                pool.shutdown();
+            }
+            System.err.println(String.format("Processed %d files, %d failed, %d already in the checkpoint, in %d ms", //NON-NLS
+                    batch.filesFinished.get(), batch.filesFailed.get(), resumedFiles,
+                    (System.nanoTime() - startTime) / 1000000L));
+        } finally {
+            LanguageModelPool.release(BATCH_JOB_ID);
+            IngestJobMetrics.remove(BATCH_JOB_ID);
+        }
+    }
+
+    private static Set<String> readCheckpoint(File checkpointFile) throws IOException {
+        Set<String> paths = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(checkpointFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    paths.add(line);
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Detects the language of one file and writes its result, unless the
+     * checkpoint lists it as finished or it is not a document.
+     */
+    private void detectFile(Path path, long size) {
+        String pathName = path.toAbsolutePath().toString();
+        if (finishedPaths.contains(pathName)) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        String status;
+        LanguageDetectionCore.DocumentLanguage document = null;
+        String message = null;
+        boolean finished = true;
+        try {
+            if (!isDocument(path, size)) {
+                return;
+            }
+            if (!ParseGuard.withinSizeLimit(size, core.getSettings(), metrics)) {
+                status = "skipped_size"; //NON-NLS
+            } else {
+                document = core.detect(Files.newInputStream(path), detectors.get(), metrics);
+                status = "ok"; //NON-NLS
+            }
+            filesFinished.incrementAndGet();
+        } catch (ParseGuard.IncompleteParseException ex) {
+            if (ex.wasStarted()) {
+                // The abandoned parse may still feed the detector.
+                detectors.remove();
+            }
+            status = ex.getReason().name().toLowerCase(Locale.ROOT);
+            message = ex.getMessage();
+            // A timeout is the file's result, anything else is retried.
+            finished = ex.getReason() == ParseGuard.IncompleteParseException.Reason.TIMEOUT;
+            if (finished) {
+                filesFinished.incrementAndGet();
+            } else {
+                filesFailed.incrementAndGet();
+            }
+        } catch (IOException | SAXException | TikaException | RuntimeException ex) {
+            status = "error"; //NON-NLS
+            message = ex.toString();
+            filesFailed.incrementAndGet();
+        }
+
+        if (finished) {
+            finishedPaths.add(pathName);
+        }
+        try {
+            resultWriter.write(pathName, size, status, document,
+                    (System.nanoTime() - startTime) / 1000000L, message, finished);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to write the results", ex); //NON-NLS
+        }
+    }
+
+    private boolean isDocument(Path path, long size) throws IOException {
+        if (size == 0) {
+            return false;
+        }
+        byte[] header = headers.get();
+        int length = 0;
+        try (InputStream stream = Files.newInputStream(path)) {
+            int read;
+            while (length < header.length && (read = stream.read(header, length, header.length - length)) > 0) {
+                length += read;
+            }
+        }
+        try (TikaInputStream content = TikaInputStream.get(path)) {
+            return documentFilter.accepts(header, length, content);
+        }
+    }
+
+    /**
+     * Lists a directory, forking a task per subdirectory and detecting the
+     * files of the directory in a task of their own.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final transient Path directory;
+
+        DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry,
+                            BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        tasks.add(new DirectoryTask(entry));
+                    } else if (attributes.isRegularFile()) {
+                        tasks.add(new FileTask(entry, attributes.size()));
+                    }
+                }
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Unable to list " + directory, ex); //NON-NLS
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Detects the language of a single file.
+     */
+    private final class FileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final transient Path file;
+        private final long size;
+
+        FileTask(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        @Override
+        protected void compute() {
+            detectFile(file, size);
+        }
+    }
+
+    /**
+     * Streams results as JSON Lines or CSV and keeps the checkpoint one
+     * flush behind the output.
+     */
+    private static final class ResultWriter implements AutoCloseable {
+
+        private final Writer output;
+        private final Writer checkpoint;
+        private final boolean csv;
+        private final StringBuilder pendingCheckpoint = new StringBuilder();
+        private final StringBuilder line = new StringBuilder();
+        private int unflushed = 0;
+
+        ResultWriter(File outputFile, File checkpointFile, boolean csv, boolean append) throws IOException {
+            this.csv = csv;
+            this.output = new BufferedWriter((outputFile != null)
+                    ? new OutputStreamWriter(new FileOutputStream(outputFile, append), StandardCharsets.UTF_8)
+                    : new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            this.checkpoint = (checkpointFile != null)
+                    ? new OutputStreamWriter(new FileOutputStream(checkpointFile, true), StandardCharsets.UTF_8)
+                    : null;
+            if (csv && !(append && outputFile != null && outputFile.length() > 0)) {
+                output.write("path,size,status,language,language_name,score,millis,message\n"); //NON-NLS
+            }
+        }
+
+        synchronized void write(String path, long size, String status,
+                LanguageDetectionCore.DocumentLanguage document, long millis, String message,
+                boolean finished) throws IOException {
+            LanguageResult result = (document != null) ? document.getLanguage() : null;
+            String language = (result != null) ? result.getLanguage() : null;
+            String languageName = (language != null)
+                    ? LanguageDetectionCore.getDisplayName(language) : null;
+            float score = (result != null) ? result.getRawScore() : 0.0f;
+            line.setLength(0);
+            if (csv) {
+                appendCsv(line, path).append(',').append(size).append(',').append(status).append(',');
+                appendCsv(line, language).append(',');
+                appendCsv(line, languageName).append(',');
+                line.append((language != null) ? score : "").append(',').append(millis).append(',');
+                appendCsv(line, message).append('\n');
+            } else {
+                line.append("{\"path\":"); //NON-NLS
+                appendJson(line, path).append(",\"size\":").append(size); //NON-NLS
+                line.append(",\"status\":"); //NON-NLS
+                appendJson(line, status).append(",\"language\":"); //NON-NLS
+                appendJson(line, language).append(",\"languageName\":"); //NON-NLS
+                appendJson(line, languageName);
+                if (language != null) {
+                    line.append(",\"score\":").append(score); //NON-NLS
+                }
+                if (document != null && !document.getParts().isEmpty()) {
+                    line.append(",\"dominantLanguage\":"); //NON-NLS
+                    appendJson(line, document.getDominantLanguage()).append(",\"parts\":["); //NON-NLS
+                    String separator = "";
+                    for (EmbeddedPartDetector.Part part : document.getParts()) {
+                        line.append(separator).append("{\"name\":"); //NON-NLS
+                        appendJson(line, part.name).append(",\"depth\":").append(part.depth); //NON-NLS
+                        line.append(",\"language\":"); //NON-NLS
+                        appendJson(line, part.language).append(",\"score\":").append(part.score); //NON-NLS
+                        line.append(",\"characters\":").append(part.characters).append('}'); //NON-NLS
+                        separator = ",";
+                    }
+                    line.append(']');
+                }
+                if (document != null && !document.getSpans().isEmpty()) {
+                    line.append(",\"spans\":["); //NON-NLS
+                    String separator = "";
+                    for (LanguageSegmenter.Span span : document.getSpans()) {
+                        line.append(separator).append("{\"language\":"); //NON-NLS
+                        appendJson(line, span.language).append(",\"start\":").append(span.start); //NON-NLS
+                        line.append(",\"end\":").append(span.end); //NON-NLS
+                        line.append(",\"proportion\":").append(span.proportion); //NON-NLS
+                        line.append(",\"confidence\":").append(span.confidence).append('}'); //NON-NLS
+                        separator = ",";
+                    }
+                    line.append(']');
+                }
+                line.append(",\"millis\":").append(millis); //NON-NLS
+                if (message != null) {
+                    line.append(",\"message\":"); //NON-NLS
+                    appendJson(line, message);
+                }
+                line.append("}\n"); //NON-NLS
+            }
+            output.append(line);
+
+            if (checkpoint != null && finished) {
+                pendingCheckpoint.append(path).append('\n');
+            }
+            if (++unflushed >= FLUSH_INTERVAL) {
+                flush();
+            }
+        }
+
+        /**
+         * Flushes the results, then records them in the checkpoint, so the
+         * checkpoint never lists a file whose result could still be lost.
+         */
+        synchronized void flush() throws IOException {
+            output.flush();
+            if (checkpoint != null) {
+                checkpoint.append(pendingCheckpoint);
+                checkpoint.flush();
+                pendingCheckpoint.setLength(0);
+            }
+            unflushed = 0;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            flush();
+            output.close();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+        }
+
+        private static StringBuilder appendCsv(StringBuilder sb, String value) {
+            if (value == null) {
+                return sb;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                    && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                return sb.append(value);
+            }
+            return sb.append('"').append(value.replace("\"", "\"\"")).append('"'); //NON-NLS
+        }
+
+        private static StringBuilder appendJson(StringBuilder sb, String value) {
+            if (value == null) {
+                return sb.append("null"); //NON-NLS
+            }
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\""); //NON-NLS
+                        break;
+                    case '\\':
+                        sb.append("\\\\"); //NON-NLS
+                        break;
+                    case '\n':
+                        sb.append("\\n"); //NON-NLS
+                        break;
+                    case '\r':
+                        sb.append("\\r"); //NON-NLS
+                        break;
+                    case '\t':
+                        sb.append("\\t"); //NON-NLS
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c)); //NON-NLS
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            return sb.append('"');
+        }
+    }
+}
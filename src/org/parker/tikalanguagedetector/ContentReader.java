@@ -0,0 +1,212 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Read layer between the case image and Tika, replacing a bare
+ * ReadContentInputStream whose every small read or mark/reset probe by Tika
+ * turns into a separate read against the image.
+ * <p>
+ * Files up to {@link #IN_MEMORY_MAX_BYTES} are read whole with as few image
+ * reads as possible into a buffer that is reused across files, and parsed
+ * from memory. Larger files are streamed through a read-ahead buffer that
+ * only reads the image in large, aligned blocks. AutoDetectParser wraps the
+ * stream in a TikaInputStream, which spools it to a temporary file when a
+ * random access format such as PDF or OLE2 asks for one, so the image is
+ * still read only once per file.
+ * <p>
+ * The buffers belong to the reader, so a reader must stay confined to one
+ * thread and be replaced when a parse reading from it is abandoned.
+ */
+final class ContentReader {
+
+    /**
+     * Size of the read-ahead buffer. A multiple of the 4 KiB page and
+     * sector sizes, so sequential image reads stay aligned.
+     */
+    static final int READ_AHEAD_BYTES = 1024 * 1024;
+
+    /**
+     * Size of the largest file read whole and parsed from memory.
+     */
+    static final int IN_MEMORY_MAX_BYTES = 4 * 1024 * 1024;
+
+    private final byte[] readAhead = new byte[READ_AHEAD_BYTES];
+    // Grows up to IN_MEMORY_MAX_BYTES to hold the largest small file seen.
+    private byte[] fileBuffer = new byte[READ_AHEAD_BYTES];
+
+    /**
+     * Opens the content of a file for parsing. The stream returned for a
+     * small file is backed by the reader's buffer, so it must be done with
+     * before the next file is opened.
+     *
+     * @param file    The file.
+     * @param metrics The metrics to record the image reads in.
+     *
+     * @return The content stream.
+     *
+     * @throws TskCoreException If a small file could not be read.
+     */
+    InputStream open(AbstractFile file, IngestJobMetrics metrics) throws TskCoreException {
+        long size = file.getSize();
+        if (size > IN_MEMORY_MAX_BYTES) {
+            return new ReadAheadStream(file, size, metrics);
+        }
+        int length = (int) size;
+        if (fileBuffer.length < length) {
+            fileBuffer = new byte[length];
+        }
+        // Content.read always fills from the start of the array, so the rest
+        // of a short read is staged in the read-ahead buffer.
+        int filled = read(file, fileBuffer, 0, length, metrics);
+        while (filled > 0 && filled < length) {
+            int read = read(file, readAhead, filled, Math.min(readAhead.length, length - filled), metrics);
+            if (read <= 0) {
+                break;
+            }
+            System.arraycopy(readAhead, 0, fileBuffer, filled, read);
+            filled += read;
+        }
+        return new ByteArrayInputStream(fileBuffer, 0, Math.max(filled, 0));
+    }
+
+    private static int read(AbstractFile file, byte[] buffer, long offset, int length,
+            IngestJobMetrics metrics) throws TskCoreException {
+        int read = file.read(buffer, offset, length);
+        metrics.recordRead(Math.max(read, 0));
+        return read;
+    }
+
+    /**
+     * Sequential stream over a large file that reads the image a block at a
+     * time. Skipped content is not read at all.
+     */
+    private final class ReadAheadStream extends InputStream {
+
+        private final AbstractFile file;
+        private final long size;
+        private final IngestJobMetrics metrics;
+        // File offset of the next block to read from the image.
+        private long nextOffset = 0;
+        private int position = 0;
+        private int limit = 0;
+
+        ReadAheadStream(AbstractFile file, long size, IngestJobMetrics metrics) {
+            this.file = file;
+            this.size = size;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return readAhead[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit) {
+                if (off == 0 && len >= readAhead.length && nextOffset < size) {
+                    // Large reads go straight into the caller's array.
+                    int read = readImage(b, (int) Math.min(len, size - nextOffset));
+                    nextOffset += read;
+                    return (read > 0) ? read : -1;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(len, limit - position);
+            System.arraycopy(readAhead, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            long buffered = limit - position;
+            if (n <= buffered) {
+                position += (int) n;
+                return n;
+            }
+            long skipped = buffered + Math.min(n - buffered, size - nextOffset);
+            nextOffset += skipped - buffered;
+            position = 0;
+            limit = 0;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        private boolean fill() throws IOException {
+            if (nextOffset >= size) {
+                return false;
+            }
+            int read = readImage(readAhead, (int) Math.min(readAhead.length, size - nextOffset));
+            nextOffset += read;
+            position = 0;
+            limit = read;
+            return read > 0;
+        }
+
+        private int readImage(byte[] buffer, int length) throws IOException {
+            try {
+                int read = ContentReader.read(file, buffer, nextOffset, length, metrics);
+                if (read <= 0) {
+                    // Treat an empty read as the end of the content rather
+                    // than retrying it forever.
+                    nextOffset = size;
+                    return 0;
+                }
+                return read;
+            } catch (TskCoreException ex) {
+                throw new IOException("Error reading file (id = " + file.getId() + ")", ex); //NON-NLS
+            }
+        }
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestJobContext;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.TskCoreException;
+import org.xml.sax.SAXException;
+
+/**
+ * Opt-in pipeline that moves the work of the module off the Autopsy ingest
+ * threads, one pipeline per ingest job.
+ * <p>
+ * Files go through three bounded stages, each with its own workers: reading
+ * and extracting a text sample, detecting the language of the sample, and
+ * committing the results to the blackboard in batches. The extract stage
+ * stops as soon as the detection of the streamed text has settled, like the
+ * module does without the pipeline, and the detect stage then only applies
+ * the settled result. The number of files in flight is bounded, so {@link #submit(AbstractFile)} blocks the calling
+ * ingest thread while the pipeline is full. The last module instance of the
+ * job drains the pipeline in shutDown.
+ * <p>
+ * In deferred mode submitting never blocks. Files wait in a priority queue
+ * instead, and the extract workers take them highest priority first, then
+ * smallest first, so a few huge documents cannot hold back the results of
+ * thousands of small ones. Whatever is still queued when the ingest threads
+ * are done is drained in shutDown.
+ */
+final class DetectionPipeline {
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final int FILES_IN_FLIGHT_PER_CORE = 4;
+    private static final int COMMIT_BATCH_SIZE = 100;
+    private static final Logger logger = Logger.getLogger(DetectionPipeline.class.getName());
+
+    private static final Map<Long, DetectionPipeline> PIPELINES = new HashMap<>();
+
+    private final long jobId;
+    private final IngestJobContext context;
+    private final LanguageDetectionSettings settings;
+    private final LanguageDetectionCore core;
+    private final LanguageArtifactBatcher batcher;
+    private final IngestJobLog log;
+    private final boolean deferred;
+    // Lower case path fragments, the earlier the higher the priority.
+    private final List<String> priorityPaths = new ArrayList<>();
+    private final AtomicLong submitted = new AtomicLong();
+    private final IngestJobMetrics metrics;
+
+    private final Semaphore filesInFlight;
+    private final ThreadPoolExecutor extractWorkers;
+    private final ThreadPoolExecutor detectWorkers;
+    private final BlockingQueue<FileTask> commitQueue;
+    private final Thread commitWorker;
+
+    // Each worker thread keeps its own sample buffer, read buffers and 
+    // detector.
+    private final ThreadLocal<TextSampleRecorder> recorders = new ThreadLocal<TextSampleRecorder>() {
+        @Override
+        protected TextSampleRecorder initialValue() {
+            return new TextSampleRecorder(detectors.get());
+        }
+    };
+    private final ThreadLocal<ContentReader> readers = new ThreadLocal<ContentReader>() {
+        @Override
+        protected ContentReader initialValue() {
+            return new ContentReader();
+        }
+    };
+    private final ThreadLocal<LanguageDetector> detectors = new ThreadLocal<LanguageDetector>() {
+        @Override
+        protected LanguageDetector initialValue() {
+            return core.newDetector();
+        }
+    };
+
+    private DetectionPipeline(IngestJobContext context, LanguageDetectionCore core,
+            LanguageArtifactBatcher batcher) {
+        this.jobId = context.getJobId();
+        this.context = context;
+        this.settings = core.getSettings();
+        this.core = core;
+        this.batcher = batcher;
+        this.metrics = IngestJobMetrics.forJob(jobId);
+        this.log = IngestJobLog.forJob(jobId);
+        this.deferred = settings.deferScheduling();
+        for (String path : settings.getPriorityPaths()) {
+            priorityPaths.add(path.toLowerCase(Locale.ROOT));
+        }
+
+        int capacity = CORES * FILES_IN_FLIGHT_PER_CORE;
+        filesInFlight = new Semaphore(capacity);
+        // Only ExtractTasks are queued, and they order themselves.
+        BlockingQueue<Runnable> extractQueue = deferred
+                ? new PriorityBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>();
+        extractWorkers = new ThreadPoolExecutor(CORES, CORES, 0L, TimeUnit.MILLISECONDS,
+                extractQueue, new WorkerThreadFactory("extract")); //NON-NLS
+        detectWorkers = new ThreadPoolExecutor(CORES, CORES, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("detect")); //NON-NLS
+        commitQueue = new ArrayBlockingQueue<>(capacity + 1);
+        commitWorker = new WorkerThreadFactory("commit").newThread(new CommitLoop()); //NON-NLS
+        commitWorker.start();
+    }
+
+    /**
+     * Gets the pipeline of an ingest job, starting it for the first module
+     * instance of the job.
+     *
+     * @param context The ingest job context.
+     * @param core    The extraction and detection core applying the ingest
+     *                job settings.
+     * @param batcher The job's artifact batcher.
+     *
+     * @return The job's pipeline.
+     */
+    static DetectionPipeline forJob(IngestJobContext context, LanguageDetectionCore core,
+            LanguageArtifactBatcher batcher) {
+        synchronized (PIPELINES) {
+            DetectionPipeline pipeline = PIPELINES.get(context.getJobId());
+            if (pipeline == null) {
+                pipeline = new DetectionPipeline(context, core, batcher);
+                PIPELINES.put(context.getJobId(), pipeline);
+            }
+            return pipeline;
+        }
+    }
+
+    /**
+     * Drains and stops the pipeline of an ingest job, if it has one. Returns
+     * once every submitted file has been committed.
+     *
+     * @param jobId The ingest job identifier.
+     */
+    static void drain(long jobId) {
+        DetectionPipeline pipeline;
+        synchronized (PIPELINES) {
+            pipeline = PIPELINES.remove(jobId);
+        }
+        if (pipeline != null) {
+            pipeline.drain();
+        }
+    }
+
+    /**
+     * Hands a file to the pipeline, blocking while the pipeline is full
+     * unless it is in deferred mode.
+     *
+     * @param file The file to detect the language of.
+     *
+     * @throws InterruptedException If interrupted while waiting for room.
+     */
+    void submit(AbstractFile file) throws InterruptedException {
+        FileTask task = new FileTask(file, priorityOf(file), submitted.getAndIncrement());
+        if (!deferred) {
+            filesInFlight.acquire();
+        }
+        try {
+            extractWorkers.execute(new ExtractTask(task));
+        } catch (RejectedExecutionException ex) {
+            if (!deferred) {
+                filesInFlight.release();
+            }
+            logger.log(Level.WARNING, "Pipeline already stopped, skipping file (id = " + file.getId() + ")", ex); //NON-NLS
+        }
+    }
+
+    /**
+     * Gets the scheduling priority of a file from the first priority path
+     * fragment found in its path.
+     *
+     * @param file The file.
+     *
+     * @return The index of the first matching fragment, or the number of
+     *         fragments if none matches; lower runs first.
+     */
+    private int priorityOf(AbstractFile file) {
+        if (!deferred || priorityPaths.isEmpty()) {
+            return 0;
+        }
+        String parentPath = file.getParentPath();
+        String path = ((parentPath != null) ? parentPath : "") + file.getName();
+        path = path.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < priorityPaths.size(); i++) {
+            if (path.contains(priorityPaths.get(i))) {
+                return i;
+            }
+        }
+        return priorityPaths.size();
+    }
+
+    private void drain() {
+        try {
+            extractWorkers.shutdown();
+            extractWorkers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            detectWorkers.shutdown();
+            detectWorkers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            commitQueue.put(FileTask.END_OF_JOB);
+            commitWorker.join();
+        } catch (InterruptedException ex) {
+            extractWorkers.shutdownNow();
+            detectWorkers.shutdownNow();
+            commitWorker.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads a file and extracts its text sample, or takes its result from the
+     * cache. In deferred mode tasks are ordered by priority, size and
+     * submission.
+     */
+    private final class ExtractTask implements Runnable, Comparable<ExtractTask> {
+
+        private final FileTask task;
+
+        ExtractTask(FileTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(ExtractTask other) {
+            if (task.priority != other.task.priority) {
+                return (task.priority < other.task.priority) ? -1 : 1;
+            }
+            if (task.size != other.task.size) {
+                return (task.size < other.task.size) ? -1 : 1;
+            }
+            return Long.compare(task.sequence, other.task.sequence);
+        }
+
+        @Override
+        public void run() {
+            if (deferred) {
+                // Queued tasks take their room in the later stages only once
+                // they are picked up.
+                try {
+                    filesInFlight.acquire();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            boolean handedOff = false;
+            try {
+                if (context.fileIngestIsCancelled()) {
+                    return;
+                }
+                String hash = TikaLanguageDetectorFileIngestModule.getContentHash(task.file, settings, metrics);
+                LanguageResultCache.CachedResult cached = TikaLanguageDetectorFileIngestModule.lookupCachedResult(metrics, hash);
+                task.hash = hash;
+                if (cached != null) {
+                    task.isoCode = cached.language;
+                    task.cached = true;
+                    commitQueue.put(task);
+                    handedOff = true;
+                    return;
+                }
+
+                if (!ParseGuard.withinSizeLimit(task.file.getSize(), settings, metrics)) {
+                    return;
+                }
+
+                // The extract stage checks the stability rule as the text
+                // streams in and stops once the detection has settled, which
+                // spares the detect stage when it settled.
+                TextSampleRecorder recorder = recorders.get();
+                recorder.reset();
+                LanguageStabilityTracker tracker = core.newStabilityTracker();
+                long stageStart = System.nanoTime();
+                InputStream fileStream = readers.get().open(task.file, metrics);
+                metrics.recordStage(IngestJobMetrics.Stage.STREAM_OPEN, System.nanoTime() - stageStart);
+                task.spans = new ArrayList<>();
+                try {
+                    task.parts = new ArrayList<>();
+                    task.detectionNanos = core.extractSample(fileStream, recorder, tracker, metrics,
+                            task.spans, task.parts);
+                } catch (ParseGuard.IncompleteParseException ex) {
+                    if (ex.wasStarted()) {
+                        // The abandoned parse may still write to the
+                        // recorder and its detector, and read from the
+                        // buffers.
+                        recorders.remove();
+                        detectors.remove();
+                        readers.remove();
+                    }
+                    log.fileFailed(Level.WARNING, task.file, ex.getMessage() + ", skipping file", null); //NON-NLS
+                    return;
+                }
+                task.sample = recorder.toCharArray();
+                task.settledResult = tracker.getSettledResult();
+                recorder.reset();
+
+                detectWorkers.execute(new DetectTask(task));
+                handedOff = true;
+            } catch (TskCoreException | IOException | SAXException | TikaException ex) {
+                log.fileFailed(Level.SEVERE, task.file, "Error processing file", ex); //NON-NLS
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (RejectedExecutionException ex) {
+                // Only happens when the pipeline is being torn down.
+            } catch (RuntimeException ex) {
+                // Caught here, or the worker would drop the file silently.
+                log.fileFailed(Level.SEVERE, task.file, "Error processing file", ex); //NON-NLS
+            } finally {
+                if (!handedOff) {
+                    filesInFlight.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Detects the language of an extracted text sample.
+     */
+    private final class DetectTask implements Runnable {
+
+        private final FileTask task;
+
+        DetectTask(FileTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            boolean handedOff = false;
+            try {
+                long stageStart = System.nanoTime();
+                LanguageResult result = (task.settledResult != null)
+                        ? core.applyMinConfidence(task.settledResult)
+                        : core.detectSample(detectors.get(), task.sample);
+                // One record per file, with the detection the extract stage
+                // ran included.
+                metrics.recordStage(IngestJobMetrics.Stage.DETECTION,
+                        System.nanoTime() - stageStart + task.detectionNanos);
+                task.isoCode = result.getLanguage();
+                if (!task.parts.isEmpty()) {
+                    task.dominantIsoCode = EmbeddedPartDetector.getDominantLanguage(
+                            task.isoCode, task.sample.length, task.parts);
+                }
+                task.sample = null;
+                TikaLanguageDetectorFileIngestModule.cacheResult(metrics, task.hash, result);
+                commitQueue.put(task);
+                handedOff = true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException ex) {
+                log.fileFailed(Level.SEVERE, task.file, "Error detecting language", ex); //NON-NLS
+            } finally {
+                if (!handedOff) {
+                    filesInFlight.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the results to the artifact batcher on a single thread.
+     */
+    private final class CommitLoop implements Runnable {
+
+        @Override
+        public void run() {
+            List<FileTask> batch = new ArrayList<>(COMMIT_BATCH_SIZE);
+            boolean endOfJob = false;
+            try {
+                while (!endOfJob) {
+                    batch.add(commitQueue.take());
+                    commitQueue.drainTo(batch, COMMIT_BATCH_SIZE - 1);
+                    endOfJob = batch.remove(FileTask.END_OF_JOB);
+                    commit(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void commit(List<FileTask> batch) {
+            for (FileTask task : batch) {
+                try {
+                    String language = LanguageDetectionCore.getDisplayName(task.isoCode);
+                    TikaLanguageDetectorFileIngestModule.postLanguageArtifact(batcher, task.file, language,
+                            task.dominantIsoCode, task.parts, task.spans);
+                    long nanos = System.nanoTime() - task.startTime;
+                    metrics.recordFile(task.file.getNameExtension(), language, nanos);
+                    log.fileProcessed(task.file, task.isoCode, task.cached, nanos);
+                } catch (TskCoreException ex) {
+                    log.fileFailed(Level.SEVERE, task.file, "Error processing file", ex); //NON-NLS
+                } finally {
+                    filesInFlight.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * A file travelling through the pipeline.
+     */
+    private static final class FileTask {
+
+        static final FileTask END_OF_JOB = new FileTask(null, 0, -1);
+
+        final AbstractFile file;
+        final int priority;
+        final long size;
+        final long sequence;
+        final long startTime = System.nanoTime();
+        String hash;
+        boolean cached;
+        char[] sample;
+        // The result the extract stage settled on, or null, and the time it
+        // spent detecting.
+        LanguageResult settledResult;
+        long detectionNanos;
+        List<EmbeddedPartDetector.Part> parts;
+        List<LanguageSegmenter.Span> spans;
+        String isoCode;
+        String dominantIsoCode;
+
+        FileTask(AbstractFile file, int priority, long sequence) {
+            this.file = file;
+            this.priority = priority;
+            this.size = (file != null) ? file.getSize() : 0;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Language detector that records the text fed to it for the detect
+     * stage, and feeds the same text to a real detector of the thread, so
+     * that the sampling content handler can stop the extraction as soon as
+     * the detection has settled.
+     */
+    private static final class TextSampleRecorder extends LanguageDetector {
+
+        private final CharArrayWriter writer = new CharArrayWriter();
+        private final LanguageDetector detector;
+
+        TextSampleRecorder(LanguageDetector detector) {
+            this.detector = detector;
+        }
+
+        char[] toCharArray() {
+            return writer.toCharArray();
+        }
+
+        @Override
+        public LanguageDetector loadModels() {
+            return this;
+        }
+
+        @Override
+        public LanguageDetector loadModels(Set<String> languages) {
+            return this;
+        }
+
+        @Override
+        public boolean hasModel(String language) {
+            return detector.hasModel(language);
+        }
+
+        @Override
+        public LanguageDetector setPriors(Map<String, Float> languageProbabilities) {
+            return this;
+        }
+
+        @Override
+        public void reset() {
+            writer.reset();
+            detector.reset();
+        }
+
+        @Override
+        public void addText(char[] cbuf, int off, int len) {
+            writer.write(cbuf, off, len);
+            detector.addText(cbuf, off, len);
+        }
+
+        @Override
+        public List<LanguageResult> detectAll() {
+            return LanguageModelPool.detectIncrementally(detector);
+        }
+    }
+
+    /**
+     * Creates named daemon threads for one pipeline stage.
+     */
+    private final class WorkerThreadFactory implements ThreadFactory {
+
+        private final String stage;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TikaLanguageDetector-" + jobId + "-" + stage //NON-NLS
+                    + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.tika.detect.Detector;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MimeTypes;
+import org.apache.tika.parser.microsoft.POIFSContainerDetector;
+import org.apache.tika.parser.pkg.ZipContainerDetector;
+
+/**
+ * Decides which files are text-bearing documents worth parsing, based on
+ * their MIME type rather than their name extension.
+ * <p>
+ * The MIME type set by the File Type Identification module is used when that
+ * module has run. Otherwise the first few KB of the file are sniffed with
+ * Tika's magic based MimeTypes detector. The file name is deliberately not
+ * passed to the detector, so that renamed documents are still found and
+ * mislabelled binaries are rejected before any parse is attempted.
+ */
+final class DocumentTypeFilter {
+
+    /**
+     * MIME types of the office documents and PDFs handled by default.
+     */
+    static final List<String> DEFAULT_MIME_TYPES = Collections.unmodifiableList(Arrays.asList(
+            "application/msword", //NON-NLS
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document", //NON-NLS
+            "application/vnd.ms-excel", //NON-NLS
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", //NON-NLS
+            "application/vnd.ms-powerpoint", //NON-NLS
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation", //NON-NLS
+            "application/pdf")); //NON-NLS
+
+    // Magic sniffing only reports these generic OLE2 and OOXML container
+    // types, since telling the office formats apart means reading the
+    // container. Such a container is resolved by listing its entries, which
+    // only happens if some format it can hold is accepted.
+    private static final String OLE2_CONTAINER_TYPE = "application/x-tika-msoffice"; //NON-NLS
+    private static final String OOXML_CONTAINER_TYPE = "application/x-tika-ooxml"; //NON-NLS
+    private static final String OLE2_TYPE_PREFIX = "application/vnd.ms-"; //NON-NLS
+    private static final String OOXML_TYPE_PREFIX = "application/vnd.openxmlformats-officedocument."; //NON-NLS
+    private static final String MSWORD_TYPE = "application/msword"; //NON-NLS
+    private static final Detector OLE2_DETECTOR = new POIFSContainerDetector();
+    private static final Detector OOXML_DETECTOR = new ZipContainerDetector();
+
+    /**
+     * Number of bytes at the start of a file that are sniffed.
+     */
+    static final int SNIFF_LENGTH = 8 * 1024;
+
+    private final Set<String> allowedTypes = new HashSet<>();
+    private boolean acceptsOle2 = false;
+    private boolean acceptsOoxml = false;
+
+    /**
+     * Creates a filter for the given MIME types.
+     *
+     * @param mimeTypes The MIME types of the files to accept.
+     */
+    DocumentTypeFilter(Collection<String> mimeTypes) {
+        for (String mimeType : mimeTypes) {
+            String type = baseType(mimeType);
+            allowedTypes.add(type);
+            acceptsOle2 |= type.equals(MSWORD_TYPE) || type.startsWith(OLE2_TYPE_PREFIX);
+            acceptsOoxml |= type.startsWith(OOXML_TYPE_PREFIX);
+        }
+    }
+
+    /**
+     * Checks whether a MIME type, as set by the file type identification
+     * module, is one of the accepted document types.
+     *
+     * @param mimeType The MIME type, parameters are ignored.
+     *
+     * @return True if the file should be parsed.
+     */
+    boolean acceptsMimeType(String mimeType) {
+        return allowedTypes.contains(baseType(mimeType));
+    }
+
+    /**
+     * Checks whether a file is one of the accepted document types, by
+     * sniffing its first bytes. An OLE2 or OOXML container is only accepted
+     * once its entries show that it holds an accepted format, so that
+     * installers, thumbnail caches, mail messages and other containers are
+     * never parsed.
+     *
+     * @param header  The first bytes of the file, {@link #SNIFF_LENGTH} are
+     *                enough.
+     * @param length  The number of bytes in the header.
+     * @param content The whole file from its start, only read for OLE2 and
+     *                OOXML containers. The caller closes it.
+     *
+     * @return True if the file should be parsed.
+     *
+     * @throws IOException If the container could not be read.
+     */
+    boolean accepts(byte[] header, int length, TikaInputStream content) throws IOException {
+        String sniffedType = sniff(header, length);
+        if (allowedTypes.contains(sniffedType)) {
+            return true;
+        }
+        Detector containerDetector = (acceptsOle2 && sniffedType.equals(OLE2_CONTAINER_TYPE)) ? OLE2_DETECTOR
+                : (acceptsOoxml && sniffedType.equals(OOXML_CONTAINER_TYPE)) ? OOXML_DETECTOR
+                : null;
+        if (containerDetector == null) {
+            return false;
+        }
+        MediaType containerType = containerDetector.detect(content, new Metadata());
+        return allowedTypes.contains(baseType(containerType.toString()));
+    }
+
+    private static String sniff(byte[] buffer, int length) {
+        if (length <= 0) {
+            return MediaType.OCTET_STREAM.toString();
+        }
+        try {
+            MediaType type = MimeTypes.getDefaultMimeTypes().detect(
+                    new ByteArrayInputStream(buffer, 0, length), new Metadata());
+            return baseType(type.toString());
+        } catch (IOException ex) {
+            // Not possible when reading from memory.
+            return MediaType.OCTET_STREAM.toString();
+        }
+    }
+
+    private static String baseType(String mimeType) {
+        int parameters = mimeType.indexOf(';');
+        String base = (parameters < 0) ? mimeType : mimeType.substring(0, parameters);
+        return base.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Embedded document extractor that detects the language of every embedded
+ * document on its own, the way Tika's RecursiveParserWrapper gives every
+ * part its own content handler.
+ * <p>
+ * Instead of collecting the full text of each part, every part is streamed
+ * into its own sampling handler with a small character budget, and parsing
+ * of the part stops once the budget is used up. The text of the parts never
+ * reaches the container's handler, so the container is detected on its own
+ * body text. Parts without any letters, such as images, are left out. Confined
+ * to the thread of a single parse.
+ */
+final class EmbeddedPartDetector extends ParseGuard.DepthLimitingExtractor {
+
+    private final LanguageDetectionSettings settings;
+    private final List<Part> parts;
+
+    /**
+     * Creates an extractor for one parse.
+     *
+     * @param context           The parse context of the parse.
+     * @param maxDepth          The number of levels of embedded documents
+     *                          that are parsed.
+     * @param settings          The detection settings, for the character
+     *                          budget per part, the candidate languages and
+     *                          the minimum confidence.
+     * @param parts             Receives the detected parts, in document
+     *                          order.
+     */
+    EmbeddedPartDetector(ParseContext context, int maxDepth, LanguageDetectionSettings settings,
+            List<Part> parts) {
+        super(context, maxDepth);
+        this.settings = settings;
+        this.parts = parts;
+    }
+
+    @Override
+    public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata,
+            boolean outputHtml) throws SAXException, IOException {
+        // Parts are sampled from the start only; the tracker never settles
+        // since the budget is small.
+        int partMaxCharacters = settings.getPartMaxCharacters();
+        LanguageDetector detector = LanguageModelPool.newDetector(settings.getCandidateLanguages(), 
+                settings.shortTextMode());
+        LanguageSamplingContentHandler partHandler = new LanguageSamplingContentHandler(detector,
+                partMaxCharacters, partMaxCharacters, new LanguageStabilityTracker(Float.MAX_VALUE, 0.0f, 0),
+                false, -1);
+
+        // Reserve the slot of this part, so it is listed before the parts
+        // nested in it.
+        int depth = getDepth() + 1;
+        int index = parts.size();
+        parts.add(null);
+        boolean detected = false;
+        try {
+            try {
+                super.parseEmbedded(stream, partHandler, metadata, false);
+            } catch (SAXException ex) {
+                if (!partHandler.isSamplingComplete(ex)) {
+                    throw ex;
+                }
+            }
+            partHandler.finishSample();
+
+            if (!partHandler.getScriptHistogram().isEmpty()) {
+                String name = metadata.get(Metadata.RESOURCE_NAME_KEY);
+                if (name == null || name.isEmpty()) {
+                    name = "part " + (index + 1); //NON-NLS
+                }
+                // Weak results are undetermined, as for the container.
+                LanguageResult result = LanguageDetectionCore.applyMinConfidence(
+                        LanguageDetectionCore.detectPreClassified(detector, partHandler.getScriptHistogram()),
+                        settings.getMinConfidence());
+                parts.set(index, new Part(name, depth, result, partHandler.getCharactersSeen()));
+                detected = true;
+            }
+        } finally {
+            if (!detected) {
+                parts.remove(index);
+            }
+        }
+    }
+
+    /**
+     * Gets the language with the most sampled characters over the container
+     * and its parts.
+     *
+     * @param language   The language of the container's own text.
+     * @param characters The number of characters sampled from the container.
+     * @param parts      The detected parts.
+     *
+     * @return The ISO code of the dominant language.
+     */
+    static String getDominantLanguage(String language, long characters, List<Part> parts) {
+        Map<String, Long> charactersPerLanguage = new HashMap<>();
+        charactersPerLanguage.put(language, characters);
+        String dominant = language;
+        for (Part part : parts) {
+            Long count = charactersPerLanguage.get(part.language);
+            long total = ((count != null) ? count : 0) + part.characters;
+            charactersPerLanguage.put(part.language, total);
+            if (total > charactersPerLanguage.get(dominant)) {
+                dominant = part.language;
+            }
+        }
+        return dominant;
+    }
+
+    /**
+     * The detected language of one embedded document.
+     */
+    static final class Part {
+
+        final String name;
+        final int depth;
+        final String language;
+        final float score;
+        final long characters;
+
+        Part(String name, int depth, LanguageResult result, long characters) {
+            this.name = name;
+            this.depth = depth;
+            this.language = result.getLanguage();
+            this.score = result.getRawScore();
+            this.characters = characters;
+        }
+    }
+}
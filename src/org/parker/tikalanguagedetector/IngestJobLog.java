@@ -0,0 +1,250 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Per ingest job logging that keeps the log useful on large cases.
+ * <p>
+ * Every processed file gets a structured key=value record at FINE level,
+ * built only when that level is enabled. Failures are aggregated by
+ * exception type and file extension: the first few of each kind are logged
+ * in full, the rest are only counted and reported in a summary line at most
+ * once per interval and when the job ends. While the job runs, a timer logs
+ * a progress line with the file and read throughput at a fixed interval, also
+ * when no file finishes for a while.
+ * Thread-safe, shared by the ingest threads and the pipeline workers.
+ */
+final class IngestJobLog {
+
+    private static final Logger logger = Logger.getLogger(IngestJobLog.class.getName());
+    private static final ConcurrentMap<Long, IngestJobLog> LOGS_FOR_INGEST_JOBS = new ConcurrentHashMap<>();
+
+    // Failures of one kind logged in full before they are only counted.
+    private static final int DETAILED_FAILURES_PER_KIND = 3;
+    private static final long SUMMARY_INTERVAL_NANOS = 60L * 1000 * 1000 * 1000;
+    private static final long PROGRESS_INTERVAL_SECONDS = 30;
+    private static final String NO_EXTENSION = "(none)"; //NON-NLS
+    private static final ScheduledExecutorService PROGRESS_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "TikaLanguageDetector-progress-log"); //NON-NLS
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final long jobId;
+    private final IngestJobMetrics metrics;
+    private final ConcurrentMap<String, FailureKind> failures = new ConcurrentHashMap<>();
+    private final AtomicLong nextSummaryNanos;
+    private volatile ScheduledFuture<?> progressTask;
+
+    // Guarded by this, only touched when a progress line is due.
+    private long lastProgressNanos;
+    private long lastProgressFiles = 0;
+    private long lastProgressBytes = 0;
+
+    private IngestJobLog(long jobId) {
+        this.jobId = jobId;
+        this.metrics = IngestJobMetrics.forJob(jobId);
+        long now = System.nanoTime();
+        this.nextSummaryNanos = new AtomicLong(now + SUMMARY_INTERVAL_NANOS);
+        this.lastProgressNanos = now;
+    }
+
+    /**
+     * Gets the log of an ingest job, creating it and starting its progress
+     * line on first use.
+     *
+     * @param jobId The ingest job identifier.
+     *
+     * @return The job's log.
+     */
+    static IngestJobLog forJob(long jobId) {
+        IngestJobLog log = LOGS_FOR_INGEST_JOBS.get(jobId);
+        if (log == null) {
+            log = new IngestJobLog(jobId);
+            IngestJobLog existing = LOGS_FOR_INGEST_JOBS.putIfAbsent(jobId, log);
+            if (existing != null) {
+                log = existing;
+            } else {
+                final IngestJobLog newLog = log;
+                log.progressTask = PROGRESS_TIMER.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        newLog.logProgress(System.nanoTime());
+                    }
+                }, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                // A close that ran before the task was set could not cancel it.
+                if (LOGS_FOR_INGEST_JOBS.get(jobId) != log) {
+                    log.progressTask.cancel(false);
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Removes the log of a finished ingest job, stopping its progress line
+     * and reporting the failures that were only counted.
+     *
+     * @param jobId The ingest job identifier.
+     */
+    static void close(long jobId) {
+        IngestJobLog log = LOGS_FOR_INGEST_JOBS.remove(jobId);
+        if (log != null) {
+            if (log.progressTask != null) {
+                log.progressTask.cancel(false);
+            }
+            log.logFailureSummary(true);
+        }
+    }
+
+    /**
+     * Records a processed file.
+     *
+     * @param file     The file.
+     * @param language The ISO code of the detected language.
+     * @param cached   Whether the result came from the result cache.
+     * @param nanos    The total processing time in nanoseconds.
+     */
+    void fileProcessed(AbstractFile file, String language, boolean cached, long nanos) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, String.format(
+                    "file processed: job=%d id=%d ext=%s size=%d language=%s cached=%b ms=%.1f", //NON-NLS
+                    jobId, file.getId(), extensionOf(file), file.getSize(), language, cached, nanos / 1e6));
+        }
+    }
+
+    /**
+     * Records a file that could not be processed. Only the first failures of
+     * each exception type and file extension are logged in full.
+     *
+     * @param level   The level to log the failure at.
+     * @param file    The file.
+     * @param message What went wrong.
+     * @param ex      The cause, may be null.
+     */
+    void fileFailed(Level level, AbstractFile file, String message, Throwable ex) {
+        String extension = extensionOf(file);
+        String key = ((ex != null) ? ex.getClass().getSimpleName() : message) + " (" + extension + ")"; //NON-NLS
+        FailureKind kind = failures.get(key);
+        if (kind == null) {
+            kind = new FailureKind(level);
+            FailureKind existing = failures.putIfAbsent(key, kind);
+            if (existing != null) {
+                kind = existing;
+            }
+        }
+        long count = kind.total.incrementAndGet();
+        if (count <= DETAILED_FAILURES_PER_KIND) {
+            String text = message + " (job = " + jobId + ", id = " + file.getId() + ")"; //NON-NLS
+            if (count == DETAILED_FAILURES_PER_KIND) {
+                text += "; further failures of this kind are only counted"; //NON-NLS
+            }
+            logger.log(level, text, ex);
+        }
+
+        long now = System.nanoTime();
+        long due = nextSummaryNanos.get();
+        if (now >= due && nextSummaryNanos.compareAndSet(due, now + SUMMARY_INTERVAL_NANOS)) {
+            logFailureSummary(false);
+        }
+    }
+
+    private synchronized void logProgress(long now) {
+        long files = metrics.getFileCount();
+        long bytes = metrics.getBytesRead();
+        double seconds = (now - lastProgressNanos) / 1e9;
+        if (seconds > 0) {
+            logger.log(Level.INFO, String.format(
+                    "progress: job=%d files=%d files/s=%.1f MB/s=%.1f", //NON-NLS
+                    jobId, files, (files - lastProgressFiles) / seconds,
+                    (bytes - lastProgressBytes) / seconds / (1024 * 1024)));
+        }
+        lastProgressNanos = now;
+        lastProgressFiles = files;
+        lastProgressBytes = bytes;
+    }
+
+    /**
+     * Logs the failures counted without being logged since the last summary,
+     * or all counted failures at the end of the job.
+     */
+    private synchronized void logFailureSummary(boolean endOfJob) {
+        for (Map.Entry<String, FailureKind> entry : new TreeMap<>(failures).entrySet()) {
+            FailureKind kind = entry.getValue();
+            long total = kind.total.get();
+            long suppressed = Math.max(0, total - DETAILED_FAILURES_PER_KIND);
+            if (suppressed > kind.reported || (endOfJob && suppressed > 0)) {
+                logger.log(kind.level, String.format(
+                        "%s: %d failures not logged in full, %d in total (job = %d)", //NON-NLS
+                        entry.getKey(), suppressed, total, jobId));
+                kind.reported = suppressed;
+            }
+        }
+    }
+
+    private static String extensionOf(AbstractFile file) {
+        String extension = file.getNameExtension();
+        return (extension == null || extension.isEmpty()) ? NO_EXTENSION : extension;
+    }
+
+    /**
+     * Counts of one kind of failure.
+     */
+    private static final class FailureKind {
+
+        final Level level;
+        final AtomicLong total = new AtomicLong();
+        // Suppressed count at the last summary, guarded by the log.
+        long reported = 0;
+
+        FailureKind(Level level) {
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free per ingest job processing metrics.
+ * <p>
+ * All counters are LongAdders and the per-job instances live in a concurrent
+ * map, so ingest threads and pipeline workers never serialize on a shared
+ * monitor. Timings are taken with System.nanoTime and broken down per
+ * processing stage, each with a latency histogram for percentiles.
+ */
+final class IngestJobMetrics {
+
+    /**
+     * Processing stages that are timed separately.
+     */
+    enum Stage {
+        CONTENT_HASH("Content Hash"), //NON-NLS
+        STREAM_OPEN("Stream Open"), //NON-NLS
+        TIKA_PARSE("Tika Parse"), //NON-NLS
+        DETECTION("Language Detection"), //NON-NLS
+        BLACKBOARD_WRITE("Blackboard Write (per batch)"); //NON-NLS
+
+        private final String displayName;
+
+        private Stage(String displayName) {
+            this.displayName = displayName;
+        }
+
+        String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Per-file limits. A file hitting one is counted under that limit instead
+     * of failing.
+     */
+    enum Limit {
+        FILE_SIZE("Files Skipped (size limit)"), //NON-NLS
+        PARSE_TIMEOUT("Files Timed Out"), //NON-NLS
+        EXTRACTED_CHARACTERS("Files Truncated (character limit)"), //NON-NLS
+        EMBEDDED_DEPTH("Files with Embedded Documents Skipped"), //NON-NLS
+        PARSE_WORKERS("Files Skipped (all parse workers stuck)"); //NON-NLS
+
+        private final String displayName;
+
+        private Limit(String displayName) {
+            this.displayName = displayName;
+        }
+
+        String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private static final ConcurrentMap<Long, IngestJobMetrics> METRICS_FOR_INGEST_JOBS = new ConcurrentHashMap<>();
+    private static final String NO_EXTENSION = "(none)"; //NON-NLS
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder numFiles = new LongAdder();
+    private final LongAdder processingNanos = new LongAdder();
+    private final LatencyHistogram fileLatency = new LatencyHistogram();
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final LatencyHistogram[] stageLatency = new LatencyHistogram[Stage.values().length];
+    private final ConcurrentMap<String, LongAdder> filesPerExtension = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> filesPerLanguage = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheEvictions = new LongAdder();
+    private final LongAdder artifactsPosted = new LongAdder();
+    private final LongAdder artifactsRetried = new LongAdder();
+    private final LongAdder artifactsFailed = new LongAdder();
+    private final LongAdder[] limitCounts = new LongAdder[Limit.values().length];
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder readCalls = new LongAdder();
+    // Offsets from startNanos, 0 until the first file is recorded.
+    private final AtomicLong firstResultNanos = new AtomicLong();
+    private final AtomicLong lastResultNanos = new AtomicLong();
+
+    private IngestJobMetrics() {
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+            stageLatency[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < limitCounts.length; i++) {
+            limitCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Gets the metrics of an ingest job, creating them on first use.
+     *
+     * @param jobId The ingest job identifier.
+     *
+     * @return The job's metrics.
+     */
+    static IngestJobMetrics forJob(long jobId) {
+        IngestJobMetrics metrics = METRICS_FOR_INGEST_JOBS.get(jobId);
+        if (metrics == null) {
+            metrics = new IngestJobMetrics();
+            IngestJobMetrics existing = METRICS_FOR_INGEST_JOBS.putIfAbsent(jobId, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Removes and returns the metrics of a finished ingest job.
+     *
+     * @param jobId The ingest job identifier.
+     *
+     * @return The job's metrics, or null if nothing was recorded.
+     */
+    static IngestJobMetrics remove(long jobId) {
+        return METRICS_FOR_INGEST_JOBS.remove(jobId);
+    }
+
+    /**
+     * Records the time spent in one processing stage.
+     *
+     * @param stage The stage.
+     * @param nanos The elapsed time in nanoseconds.
+     */
+    void recordStage(Stage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+        stageLatency[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records a processed file.
+     *
+     * @param extension The file name extension.
+     * @param language  The display name of the detected language.
+     * @param nanos     The total processing time in nanoseconds.
+     */
+    void recordFile(String extension, String language, long nanos) {
+        long sinceStart = Math.max(1, System.nanoTime() - startNanos);
+        firstResultNanos.compareAndSet(0, sinceStart);
+        long last = lastResultNanos.get();
+        while (sinceStart > last && !lastResultNanos.compareAndSet(last, sinceStart)) {
+            last = lastResultNanos.get();
+        }
+        numFiles.increment();
+        processingNanos.add(nanos);
+        fileLatency.record(nanos);
+        increment(filesPerExtension, (extension == null || extension.isEmpty()) ? NO_EXTENSION : extension);
+        increment(filesPerLanguage, language);
+    }
+
+    void recordCacheLookup(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    void recordCacheEvictions(long evictions) {
+        cacheEvictions.add(evictions);
+    }
+
+    void recordArtifactsPosted(long count) {
+        artifactsPosted.add(count);
+    }
+
+    void recordArtifactsRetried(long count) {
+        artifactsRetried.add(count);
+    }
+
+    void recordArtifactsFailed(long count) {
+        artifactsFailed.add(count);
+    }
+
+    void recordLimit(Limit limit) {
+        limitCounts[limit.ordinal()].increment();
+    }
+
+    /**
+     * Records one read of file content from the case image.
+     *
+     * @param bytes The number of bytes read.
+     */
+    void recordRead(long bytes) {
+        readCalls.increment();
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Gets the number of files processed so far.
+     *
+     * @return The file count.
+     */
+    long getFileCount() {
+        return numFiles.sum();
+    }
+
+    /**
+     * Gets the number of bytes read from the case image for parsing so far.
+     *
+     * @return The byte count.
+     */
+    long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Renders the metrics as the HTML table of the job summary message.
+     *
+     * @param moduleName The name of the module shown as the title.
+     * @param showCache  Whether to include the result cache rows.
+     *
+     * @return The HTML table.
+     */
+    String toHtml(String moduleName, boolean showCache) {
+        StringBuilder detailsSb = new StringBuilder();
+        detailsSb.append("<table border='0' cellpadding='4' width='420'>"); //NON-NLS
+        detailsSb.append("<tr><td>").append(moduleName).append("</td></tr>"); //NON-NLS
+        appendRow(detailsSb, "Total Processing Time (ms)", toMillis(processingNanos.sum()));
+        appendRow(detailsSb, "Elapsed Job Time (ms)", toMillis(System.nanoTime() - startNanos));
+        appendRow(detailsSb, "Time to First Result (ms)", toMillis(firstResultNanos.get()));
+        appendRow(detailsSb, "Makespan, Start to Last Result (ms)", toMillis(lastResultNanos.get()));
+        appendRow(detailsSb, "Total Files Processed", numFiles.sum());
+        appendRow(detailsSb, "Artifacts Posted", artifactsPosted.sum());
+        appendRow(detailsSb, "Artifact Commits Retried", artifactsRetried.sum());
+        appendRow(detailsSb, "Artifacts Failed", artifactsFailed.sum());
+        appendRow(detailsSb, "File Latency p50/p95/p99 (ms)", fileLatency.formatPercentiles());
+        if (showCache) {
+            appendRow(detailsSb, "Cache Hits", cacheHits.sum());
+            appendRow(detailsSb, "Cache Misses", cacheMisses.sum());
+            appendRow(detailsSb, "Cache Evictions", cacheEvictions.sum());
+        }
+        for (Limit limit : Limit.values()) {
+            appendRow(detailsSb, limit.getDisplayName(), limitCounts[limit.ordinal()].sum());
+        }
+        appendRow(detailsSb, "Parse Workers Stuck in Abandoned Parses", ParseGuard.getStuckWorkerCount());
+        appendRow(detailsSb, "Image Bytes Read for Parsing", bytesRead.sum());
+        appendRow(detailsSb, "Image Read Calls for Parsing", readCalls.sum());
+
+        detailsSb.append("<tr><td><b>Stage</b></td><td><b>Total ms, p50/p95/p99 ms</b></td></tr>\n"); //NON-NLS
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latency = stageLatency[stage.ordinal()];
+            if (latency.getCount() > 0) {
+                appendRow(detailsSb, stage.getDisplayName(),
+                        toMillis(stageNanos[stage.ordinal()].sum()) + ", " + latency.formatPercentiles());
+            }
+        }
+
+        appendCounts(detailsSb, "Files per Extension", filesPerExtension);
+        appendCounts(detailsSb, "Files per Language", filesPerLanguage);
+        detailsSb.append("</table>"); //NON-NLS
+        return detailsSb.toString();
+    }
+
+    private static void increment(ConcurrentMap<String, LongAdder> counts, String key) {
+        LongAdder count = counts.get(key);
+        if (count == null) {
+            count = new LongAdder();
+            LongAdder existing = counts.putIfAbsent(key, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.increment();
+    }
+
+    private static void appendRow(StringBuilder detailsSb, String label, Object value) {
+        detailsSb.append("<tr><td>") //NON-NLS
+                .append(label)
+                .append("</td><td>").append(value).append("</td></tr>\n"); //NON-NLS
+    }
+
+    private static void appendCounts(StringBuilder detailsSb, String title, Map<String, LongAdder> counts) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        detailsSb.append("<tr><td><b>").append(title).append("</b></td></tr>\n"); //NON-NLS
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counts).entrySet()) {
+            appendRow(detailsSb, entry.getKey(), entry.getValue().sum());
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    /**
+     * Lock-free log-linear latency histogram. Each power of two range of
+     * nanoseconds is split into four buckets, which keeps percentiles within
+     * 25% of the true value at a fixed 256 counters.
+     */
+    static final class LatencyHistogram {
+
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder total = new LongAdder();
+
+        void record(long nanos) {
+            counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+            total.increment();
+        }
+
+        long getCount() {
+            return total.sum();
+        }
+
+        /**
+         * Gets the value at the given percentile.
+         *
+         * @param percentile The percentile, between 0 and 100.
+         *
+         * @return The upper bound of the bucket holding the percentile, in
+         *         nanoseconds.
+         */
+        long getPercentile(double percentile) {
+            long count = total.sum();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length(); bucket++) {
+                seen += counts.get(bucket);
+                if (seen >= Math.max(1, rank)) {
+                    return upperBoundOf(bucket);
+                }
+            }
+            return upperBoundOf(counts.length() - 1);
+        }
+
+        String formatPercentiles() {
+            return String.format("%.1f / %.1f / %.1f", //NON-NLS
+                    getPercentile(50) / 1e6, getPercentile(95) / 1e6, getPercentile(99) / 1e6);
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            long lower = (1L << magnitude) + (subBucket << (magnitude - SUB_BUCKET_BITS));
+            return lower + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestServices;
+import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Per ingest job buffer of language artifacts that are committed to the case
+ * database in batches.
+ * <p>
+ * A batch is written once it reaches the configured size, or once its
+ * oldest artifact has waited for the configured interval. Only the attribute
+ * inserts of a batch share a single case database transaction: the case
+ * database can only create an artifact on a connection of its own, so each
+ * artifact is still one insert of its own. Each batch fires a single
+ * ModuleDataEvent carrying all of its artifacts, instead of one event per
+ * file. The last module instance of the job flushes the remaining artifacts
+ * in shutDown.
+ * <p>
+ * An artifact cannot be removed again once it is created, so an artifact
+ * whose attributes fail to commit is never given up while the job runs, or
+ * it would be left in the case without attributes. Only an entry whose
+ * artifact could not be created is given up after MAX_ATTEMPTS.
+ */
+final class LanguageArtifactBatcher {
+
+    private static final Logger logger = Logger.getLogger(LanguageArtifactBatcher.class.getName());
+    private static final Map<Long, LanguageArtifactBatcher> BATCHERS = new HashMap<>();
+    // Number of flushes that try to create an artifact before it is given up,
+    // and number of flushes in a row without progress after which the end of
+    // the job stops retrying.
+    private static final int MAX_ATTEMPTS = 3;
+    private static final ScheduledExecutorService FLUSH_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "TikaLanguageDetector-artifact-flush"); //NON-NLS
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final long jobId;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Object pendingLock = new Object();
+    private final Object writeLock = new Object();
+    private List<PendingArtifact> pending = new ArrayList<>();
+    private long oldestPendingMillis = 0;
+    private final ScheduledFuture<?> flushTask;
+
+    private LanguageArtifactBatcher(long jobId, int batchSize, long flushIntervalMillis) {
+        this.jobId = jobId;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = flushIntervalMillis;
+        if (flushIntervalMillis > 0) {
+            flushTask = FLUSH_TIMER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushIfDue();
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flushTask = null;
+        }
+    }
+
+    /**
+     * Gets the batcher of an ingest job, creating it for the first module
+     * instance of the job.
+     *
+     * @param jobId    The ingest job identifier.
+     * @param settings The ingest job settings.
+     *
+     * @return The job's batcher.
+     */
+    static LanguageArtifactBatcher forJob(long jobId, LanguageDetectionSettings settings) {
+        synchronized (BATCHERS) {
+            LanguageArtifactBatcher batcher = BATCHERS.get(jobId);
+            if (batcher == null) {
+                batcher = new LanguageArtifactBatcher(jobId, settings.getCommitBatchSize(),
+                        settings.getCommitIntervalMillis());
+                BATCHERS.put(jobId, batcher);
+            }
+            return batcher;
+        }
+    }
+
+    /**
+     * Commits the remaining artifacts of an ingest job and stops its
+     * batcher.
+     *
+     * @param jobId The ingest job identifier.
+     */
+    static void close(long jobId) {
+        LanguageArtifactBatcher batcher;
+        synchronized (BATCHERS) {
+            batcher = BATCHERS.remove(jobId);
+        }
+        if (batcher != null) {
+            if (batcher.flushTask != null) {
+                batcher.flushTask.cancel(false);
+            }
+            // Created artifacts are retried until a few flushes in a row
+            // make no progress, which means the case database cannot be
+            // written at all.
+            int flushesWithoutProgress = 0;
+            while (batcher.hasPending() && flushesWithoutProgress < MAX_ATTEMPTS) {
+                int pendingBefore = batcher.getPendingCount();
+                try {
+                    batcher.flush();
+                } catch (TskCoreException ex) {
+                    logger.log(Level.SEVERE, "Failed to commit language artifacts for ingest job " + jobId, ex); //NON-NLS
+                }
+                flushesWithoutProgress = (batcher.getPendingCount() < pendingBefore) ? 0 : flushesWithoutProgress + 1;
+            }
+            batcher.giveUpPending();
+        }
+    }
+
+    private boolean hasPending() {
+        synchronized (pendingLock) {
+            return !pending.isEmpty();
+        }
+    }
+
+    private int getPendingCount() {
+        synchronized (pendingLock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Drops the entries still queued at the end of the job, logging the
+     * artifacts left in the case without attributes so that they can be
+     * found.
+     */
+    private void giveUpPending() {
+        List<PendingArtifact> remaining;
+        synchronized (pendingLock) {
+            remaining = pending;
+            pending = new ArrayList<>();
+        }
+        for (PendingArtifact pendingArtifact : remaining) {
+            String message = "Giving up on the language artifact of " + pendingArtifact.file.getName() //NON-NLS
+                    + " (id " + pendingArtifact.file.getId() + ")"; //NON-NLS
+            if (pendingArtifact.artifact != null) {
+                message += ", artifact " + pendingArtifact.artifact.getArtifactID() + " is left without attributes"; //NON-NLS
+            }
+            logger.log(Level.SEVERE, message);
+        }
+        IngestJobMetrics.forJob(jobId).recordArtifactsFailed(remaining.size());
+    }
+
+    /**
+     * Queues an artifact for a file, committing the batch on the calling
+     * thread once it is full.
+     *
+     * @param file       The file the artifact belongs to.
+     * @param type       The artifact type.
+     * @param attributes The attributes of the artifact.
+     *
+     * @throws TskCoreException If committing a full batch failed.
+     */
+    void add(AbstractFile file, BlackboardArtifact.ARTIFACT_TYPE type,
+            Collection<BlackboardAttribute> attributes) throws TskCoreException {
+        boolean full;
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) {
+                oldestPendingMillis = System.currentTimeMillis();
+            }
+            pending.add(new PendingArtifact(file, type, attributes));
+            full = pending.size() >= batchSize;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Commits all queued artifacts in one transaction and fires one event
+     * per artifact type for them.
+     * <p>
+     * The artifacts are created before the transaction is opened, because
+     * the case database creates artifacts on a connection of its own, and
+     * are kept with the queued entries so that a retry never creates a
+     * second artifact for a file. If the batch transaction fails, each
+     * artifact is written in a transaction of its own. Entries that still
+     * fail are queued again for the next flush. An entry whose artifact
+     * could not be created is given up after MAX_ATTEMPTS.
+     *
+     * @throws TskCoreException If some artifacts could not be committed in
+     *                          their last attempt.
+     */
+    void flush() throws TskCoreException {
+        synchronized (writeLock) {
+            List<PendingArtifact> batch;
+            synchronized (pendingLock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>(batchSize);
+            }
+
+            long start = System.nanoTime();
+            SleuthkitCase caseDb = Case.getCurrentCase().getSleuthkitCase();
+            List<PendingArtifact> committed = new ArrayList<>(batch.size());
+            List<PendingArtifact> retry = new ArrayList<>();
+            TskCoreException lastFailure = null;
+            int failed = 0;
+            try {
+                write(caseDb, batch);
+                committed.addAll(batch);
+            } catch (TskCoreException ex) {
+                logger.log(Level.WARNING, "Failed to commit a batch of " + batch.size() //NON-NLS
+                        + " language artifacts, committing them one at a time", ex); //NON-NLS
+                for (PendingArtifact pendingArtifact : batch) {
+                    try {
+                        write(caseDb, Collections.singletonList(pendingArtifact));
+                        committed.add(pendingArtifact);
+                    } catch (TskCoreException artifactEx) {
+                        pendingArtifact.attempts++;
+                        if (pendingArtifact.artifact != null || pendingArtifact.attempts < MAX_ATTEMPTS) {
+                            retry.add(pendingArtifact);
+                        } else {
+                            failed++;
+                            lastFailure = artifactEx;
+                            logger.log(Level.SEVERE, "Giving up on the language artifact of " //NON-NLS
+                                    + pendingArtifact.file.getName() + " (id " + pendingArtifact.file.getId() //NON-NLS
+                                    + ") after " + MAX_ATTEMPTS + " attempts", artifactEx); //NON-NLS
+                        }
+                    }
+                }
+            }
+            if (!retry.isEmpty()) {
+                synchronized (pendingLock) {
+                    if (pending.isEmpty()) {
+                        oldestPendingMillis = System.currentTimeMillis();
+                    }
+                    pending.addAll(0, retry);
+                }
+            }
+
+            IngestJobMetrics metrics = IngestJobMetrics.forJob(jobId);
+            metrics.recordArtifactsPosted(committed.size());
+            metrics.recordArtifactsRetried(retry.size());
+            metrics.recordArtifactsFailed(failed);
+            metrics.recordStage(IngestJobMetrics.Stage.BLACKBOARD_WRITE, System.nanoTime() - start);
+            Map<BlackboardArtifact.ARTIFACT_TYPE, List<BlackboardArtifact>> artifacts = new HashMap<>();
+            for (PendingArtifact pendingArtifact : committed) {
+                List<BlackboardArtifact> ofType = artifacts.get(pendingArtifact.type);
+                if (ofType == null) {
+                    ofType = new ArrayList<>();
+                    artifacts.put(pendingArtifact.type, ofType);
+                }
+                ofType.add(pendingArtifact.artifact);
+            }
+            for (Map.Entry<BlackboardArtifact.ARTIFACT_TYPE, List<BlackboardArtifact>> entry : artifacts.entrySet()) {
+                IngestServices.getInstance().fireModuleDataEvent(new ModuleDataEvent(
+                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName(),
+                        entry.getKey(), entry.getValue()));
+            }
+            if (lastFailure != null) {
+                throw new TskCoreException("Failed to commit " + failed + " language artifacts", lastFailure); //NON-NLS
+            }
+        }
+    }
+
+    /**
+     * Creates the missing artifacts of some queued entries and writes all of
+     * their attributes in one transaction.
+     *
+     * @param caseDb  The case database.
+     * @param entries The queued entries.
+     *
+     * @throws TskCoreException If an artifact could not be created or the
+     *                          transaction failed and was rolled back.
+     */
+    private static void write(SleuthkitCase caseDb, List<PendingArtifact> entries) throws TskCoreException {
+        for (PendingArtifact pendingArtifact : entries) {
+            if (pendingArtifact.artifact == null) {
+                pendingArtifact.artifact = pendingArtifact.file.newArtifact(pendingArtifact.type);
+            }
+        }
+        SleuthkitCase.CaseDbTransaction transaction = caseDb.beginTransaction();
+        try {
+            for (PendingArtifact pendingArtifact : entries) {
+                pendingArtifact.artifact.addAttributes(pendingArtifact.attributes, transaction);
+            }
+            transaction.commit();
+        } catch (TskCoreException ex) {
+            try {
+                transaction.rollback();
+            } catch (TskCoreException rollbackEx) {
+                logger.log(Level.SEVERE, "Failed to roll back language artifact batch", rollbackEx); //NON-NLS
+            }
+            throw ex;
+        }
+    }
+
+    private void flushIfDue() {
+        synchronized (pendingLock) {
+            if (pending.isEmpty() || System.currentTimeMillis() - oldestPendingMillis < flushIntervalMillis) {
+                return;
+            }
+        }
+        try {
+            flush();
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to commit language artifacts for ingest job " + jobId, ex); //NON-NLS
+        }
+    }
+
+    /**
+     * An artifact waiting to be committed.
+     */
+    private static final class PendingArtifact {
+
+        final AbstractFile file;
+        final BlackboardArtifact.ARTIFACT_TYPE type;
+        final Collection<BlackboardAttribute> attributes;
+        // Created on the first attempt and reused by the retries.
+        BlackboardArtifact artifact;
+        int attempts;
+
+        PendingArtifact(AbstractFile file, BlackboardArtifact.ARTIFACT_TYPE type,
+                Collection<BlackboardAttribute> attributes) {
+            this.file = file;
+            this.type = type;
+            this.attributes = attributes;
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.language.detect.LanguageConfidence;
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Text extraction and language detection for a single document stream,
+ * independent of where the document comes from.
+ * <p>
+ * The ingest module, the detection pipeline and the batch command line
+ * detector all go through this class, so a document is sampled, limited and
+ * detected the same way whether it is an Autopsy file or a file on disk. The
+ * core is thread-safe; the detectors passed in are not and must stay confined
+ * to the calling thread.
+ */
+final class LanguageDetectionCore {
+
+    private static final String NO_TEXT = "No Text";
+    private static final String UNDETERMINED = "Undetermined";
+
+    private final LanguageDetectionSettings settings;
+    private final AutoDetectParser parser;
+
+    /**
+     * Creates a core applying the given settings.
+     *
+     * @param settings The detection settings.
+     * @param parser   The shared parser to extract text with.
+     */
+    LanguageDetectionCore(LanguageDetectionSettings settings, AutoDetectParser parser) {
+        this.settings = settings;
+        this.parser = parser;
+    }
+
+    /**
+     * Gets the settings the core applies.
+     *
+     * @return The detection settings.
+     */
+    LanguageDetectionSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Gets the human readable form of an ISO language code.
+     *
+     * @param isoCode The ISO code returned by the detector.
+     *
+     * @return The English display name, or the code itself if it is not
+     *         known.
+     */
+    static String getDisplayName(String isoCode) {
+        if (isoCode.isEmpty()) {
+            // Text without any letters.
+            return NO_TEXT;
+        } else if (LanguageSegmenter.UNDETERMINED.equals(isoCode)) {
+            return UNDETERMINED;
+        }
+        // English names keep the artifacts comparable across cases, 
+        // whatever the locale of the examiner's machine.
+        String displayName = new Locale(isoCode).getDisplayLanguage(Locale.ENGLISH);
+        return displayName.isEmpty() ? isoCode : displayName;
+    }
+
+    /**
+     * Creates a detector for the calling thread over the candidate languages
+     * and in the short text mode of the settings. The language model pool
+     * must have been acquired for them.
+     *
+     * @return A new detector.
+     */
+    LanguageDetector newDetector() {
+        return LanguageModelPool.newDetector(settings.getCandidateLanguages(), settings.shortTextMode());
+    }
+
+    /**
+     * Extracts a sample of the text of a document and detects its language.
+     * The detector is reset before and after use.
+     *
+     * @param stream   The document content; it is closed when done.
+     * @param detector The detector of the calling thread.
+     * @param metrics  The metrics to record timings and limits in.
+     *
+     * @return The detected languages.
+     *
+     * @throws ParseGuard.IncompleteParseException If the parse did not
+     *                                             complete. An abandoned
+     *                                             parse may still feed the
+     *                                             detector, so the caller
+     *                                             must not use it again.
+     * @throws IOException                         If the stream could not be
+     *                                             read.
+     * @throws SAXException                        If the extracted text could
+     *                                             not be handled.
+     * @throws TikaException                       If the document could not
+     *                                             be parsed.
+     */
+    DocumentLanguage detect(InputStream stream, LanguageDetector detector, IngestJobMetrics metrics)
+            throws ParseGuard.IncompleteParseException, IOException, SAXException, TikaException {
+        // Drop anything left over from a file that failed to parse.
+        detector.reset();
+        LanguageStabilityTracker tracker = newStabilityTracker();
+        LanguageSamplingContentHandler handler = newSamplingHandler(detector, tracker);
+        LanguageSegmenter segmenter = installSegmenter(handler);
+        List<EmbeddedPartDetector.Part> parts = new ArrayList<>();
+        long stageStart = System.nanoTime();
+        ParseGuard.parse(parser, stream, handler, settings, metrics, parts);
+        List<LanguageSegmenter.Span> spans = (segmenter != null)
+                ? segmenter.getSpans() : Collections.<LanguageSegmenter.Span>emptyList();
+        long detectionNanos = handler.getDetectionNanos();
+        metrics.recordStage(IngestJobMetrics.Stage.TIKA_PARSE,
+                System.nanoTime() - stageStart - detectionNanos);
+
+        // If the incremental detection already settled, its result is used
+        // without detecting again.
+        stageStart = System.nanoTime();
+        LanguageResult result = (tracker.getSettledResult() != null)
+                ? tracker.getSettledResult() : detectPreClassified(detector, handler.getScriptHistogram());
+        detector.reset();
+        metrics.recordStage(IngestJobMetrics.Stage.DETECTION,
+                System.nanoTime() - stageStart + detectionNanos);
+        return new DocumentLanguage(applyMinConfidence(result), handler.getCharactersSeen(), parts, spans);
+    }
+
+    /**
+     * Extracts a sample of the text of a document into a detector, for
+     * stages that detect separately. The extraction stops once the tracker
+     * has settled, whose result then stands for the document's language.
+     *
+     * @param stream   The document content; it is closed when done.
+     * @param recorder The detector receiving the sample.
+     * @param tracker  Decides when the detection has settled, from
+     *                 {@link #newStabilityTracker()}.
+     * @param metrics  The metrics to record the parse time and limits in.
+     * @param spans    Receives the language spans if documents are segmented.
+     * @param parts    Receives the languages of the embedded documents if
+     *                 they are detected per part.
+     *
+     * @return The time spent detecting while extracting, in nanoseconds,
+     *         which is left out of the recorded parse time.
+     *
+     * @throws ParseGuard.IncompleteParseException If the parse did not
+     *                                             complete. An abandoned
+     *                                             parse may still feed the
+     *                                             recorder, so the caller
+     *                                             must not use it again.
+     * @throws IOException                         If the stream could not be
+     *                                             read.
+     * @throws SAXException                        If the extracted text could
+     *                                             not be handled.
+     * @throws TikaException                       If the document could not
+     *                                             be parsed.
+     */
+    long extractSample(InputStream stream, LanguageDetector recorder, LanguageStabilityTracker tracker,
+            IngestJobMetrics metrics, List<LanguageSegmenter.Span> spans, List<EmbeddedPartDetector.Part> parts)
+            throws ParseGuard.IncompleteParseException, IOException, SAXException, TikaException {
+        LanguageSamplingContentHandler handler = newSamplingHandler(recorder, tracker);
+        LanguageSegmenter segmenter = installSegmenter(handler);
+        long stageStart = System.nanoTime();
+        ParseGuard.parse(parser, stream, handler, settings, metrics, parts);
+        if (segmenter != null) {
+            spans.addAll(segmenter.getSpans());
+        }
+        long detectionNanos = handler.getDetectionNanos();
+        metrics.recordStage(IngestJobMetrics.Stage.TIKA_PARSE,
+                System.nanoTime() - stageStart - detectionNanos);
+        return detectionNanos;
+    }
+
+    /**
+     * Detects the language of an extracted text sample, feeding it to the
+     * detector in chunks and stopping as soon as the detection has settled.
+     *
+     * @param detector The detector of the calling thread.
+     * @param sample   The text sample.
+     *
+     * @return The detected language.
+     */
+    LanguageResult detectSample(LanguageDetector detector, char[] sample) {
+        ScriptHistogram histogram = new ScriptHistogram();
+        histogram.addText(sample, 0, sample.length);
+        if (histogram.isEmpty()) {
+            return LanguageResult.NULL;
+        }
+        LanguageResult preClassified = histogram.classify(detector);
+        if (preClassified != null) {
+            return applyMinConfidence(preClassified);
+        }
+
+        // The whole sample is known up front, so the candidates are narrowed
+        // for the incremental detection as well.
+        detector.reset();
+        LanguageModelPool.narrow(detector, histogram.getCandidates(detector));
+        try {
+            LanguageStabilityTracker tracker = newStabilityTracker();
+            int chunkSize = Math.max(1, settings.getChunkSize());
+            for (int offset = 0; offset < sample.length; offset += chunkSize) {
+                detector.addText(sample, offset, Math.min(chunkSize, sample.length - offset));
+                if (tracker.isEnabled() && tracker.update(LanguageModelPool.detectIncrementally(detector))) {
+                    break;
+                }
+            }
+            return applyMinConfidence((tracker.getSettledResult() != null) 
+                    ? tracker.getSettledResult() : undeterminedIfEmpty(detector.detect()));
+        } finally {
+            LanguageModelPool.narrow(detector, null);
+            detector.reset();
+        }
+    }
+
+    /**
+     * Reports a result scored below the minimum confidence as undetermined.
+     * Text without letters is left as it is.
+     *
+     * @param result The detected language.
+     *
+     * @return The result to report.
+     */
+    LanguageResult applyMinConfidence(LanguageResult result) {
+        return applyMinConfidence(result, settings.getMinConfidence());
+    }
+
+    /**
+     * Reports a result scored below a minimum confidence as undetermined.
+     * Text without letters is left as it is.
+     *
+     * @param result        The detected language.
+     * @param minConfidence The lowest score reported as a language.
+     *
+     * @return The result to report.
+     */
+    static LanguageResult applyMinConfidence(LanguageResult result, float minConfidence) {
+        if (result.getLanguage().isEmpty() || result.getRawScore() >= minConfidence) {
+            return result;
+        }
+        return new LanguageResult(LanguageSegmenter.UNDETERMINED, LanguageConfidence.NONE, result.getRawScore());
+    }
+
+    /**
+     * Detects the language of the text buffered in a detector, using the
+     * script histogram of that text to skip or narrow the detection. Text
+     * without letters is classified as having no language, text with letters
+     * that no language matches as undetermined.
+     *
+     * @param detector  The detector holding the text.
+     * @param histogram The script histogram of the same text.
+     *
+     * @return The detected language, {@link LanguageResult#NULL} if the text
+     *         has no letters.
+     */
+    static LanguageResult detectPreClassified(LanguageDetector detector, ScriptHistogram histogram) {
+        if (histogram.isEmpty()) {
+            return LanguageResult.NULL;
+        }
+        LanguageResult preClassified = histogram.classify(detector);
+        if (preClassified != null) {
+            return preClassified;
+        }
+        Set<String> candidates = histogram.getCandidates(detector);
+        if (candidates == null) {
+            return undeterminedIfEmpty(detector.detect());
+        }
+        LanguageModelPool.narrow(detector, candidates);
+        try {
+            return undeterminedIfEmpty(detector.detect());
+        } finally {
+            LanguageModelPool.narrow(detector, null);
+        }
+    }
+
+    /**
+     * Reports an empty detection result as undetermined. The detector
+     * returns an empty result when no language scores at all, which must not
+     * be mistaken for text without letters.
+     */
+    private static LanguageResult undeterminedIfEmpty(LanguageResult result) {
+        if (!result.getLanguage().isEmpty()) {
+            return result;
+        }
+        return new LanguageResult(LanguageSegmenter.UNDETERMINED, LanguageConfidence.NONE, 0.0f);
+    }
+
+    /**
+     * Creates the tracker deciding when incremental detection has settled.
+     *
+     * @return A new tracker.
+     */
+    LanguageStabilityTracker newStabilityTracker() {
+        return new LanguageStabilityTracker(settings.getConfidenceThreshold(),
+                settings.getStableMargin(), settings.getStableChunks());
+    }
+
+    /**
+     * Gives the handler a segmenter with its own detector if documents are
+     * segmented by language.
+     *
+     * @param handler The handler of the document.
+     *
+     * @return The segmenter, or null if documents are not segmented.
+     */
+    private LanguageSegmenter installSegmenter(LanguageSamplingContentHandler handler) {
+        if (!settings.segmentDocument()) {
+            return null;
+        }
+        LanguageSegmenter segmenter = new LanguageSegmenter(newDetector(),
+                settings.getSegmentWindowSize(), settings.getMaxSegmentWindows());
+        handler.setSegmenter(segmenter);
+        return segmenter;
+    }
+
+    private LanguageSamplingContentHandler newSamplingHandler(LanguageDetector detector,
+            LanguageStabilityTracker tracker) {
+        return new LanguageSamplingContentHandler(detector, settings.getMaxCharacters(),
+                settings.getChunkSize(), tracker, settings.sampleDocument(),
+                settings.getMaxExtractedCharacters());
+    }
+
+    // https://tika.apache.org/1.14/examples.html
+    /**
+     * Streams the body text of a document into the sampling handler. Parsing
+     * stops as soon as the handler has seen enough text, so the memory used
+     * per file is bounded by the handler's character budget.
+     *
+     * @param parser      The shared parser to use.
+     * @param inputStream The document content; it is closed when done.
+     * @param handler     The handler feeding the language detector.
+     */
+    static void parseExample(AutoDetectParser parser, InputStream inputStream,
+            LanguageSamplingContentHandler handler) throws IOException, SAXException, TikaException {
+        parseExample(parser, inputStream, handler, TikaParserRegistry.newParseContext(parser));
+    }
+
+    /**
+     * Streams the body text of a document into the sampling handler with a
+     * parse context set up by the caller.
+     *
+     * @param parser       The shared parser to use.
+     * @param inputStream  The document content; it is closed when done.
+     * @param handler      The handler feeding the language detector.
+     * @param parseContext The parse context of this document only.
+     */
+    static void parseExample(AutoDetectParser parser, InputStream inputStream,
+            LanguageSamplingContentHandler handler, ParseContext parseContext)
+            throws IOException, SAXException, TikaException {
+        Metadata metadata = new Metadata();
+        try (InputStream stream = inputStream) {
+            parser.parse(stream, new BodyContentHandler(handler), metadata, parseContext);
+        } catch (IOException | SAXException | TikaException ex) {
+            if (!handler.isSamplingComplete(ex)) {
+                throw ex;
+            }
+        }
+        handler.finishSample();
+    }
+
+    /**
+     * The detected language of a document, with the languages of its
+     * embedded documents when they are detected per part and its language
+     * spans when it is segmented.
+     */
+    static final class DocumentLanguage {
+
+        private final LanguageResult language;
+        private final long characters;
+        private final List<EmbeddedPartDetector.Part> parts;
+        private final List<LanguageSegmenter.Span> spans;
+
+        DocumentLanguage(LanguageResult language, long characters, List<EmbeddedPartDetector.Part> parts,
+                List<LanguageSegmenter.Span> spans) {
+            this.language = language;
+            this.characters = characters;
+            this.parts = Collections.unmodifiableList(parts);
+            this.spans = Collections.unmodifiableList(spans);
+        }
+
+        /**
+         * Gets the language of the document's own text.
+         *
+         * @return The detected language.
+         */
+        LanguageResult getLanguage() {
+            return language;
+        }
+
+        /**
+         * Gets the languages of the embedded documents.
+         *
+         * @return The parts, empty unless embedded documents are detected
+         *         per part.
+         */
+        List<EmbeddedPartDetector.Part> getParts() {
+            return parts;
+        }
+
+        /**
+         * Gets the language spans of the document's own text.
+         *
+         * @return The spans in text order, empty unless documents are
+         *         segmented.
+         */
+        List<LanguageSegmenter.Span> getSpans() {
+            return spans;
+        }
+
+        /**
+         * Gets the language with the most sampled text over the document and
+         * its embedded documents.
+         *
+         * @return The ISO code of the dominant language.
+         */
+        String getDominantLanguage() {
+            return EmbeddedPartDetector.getDominantLanguage(language.getLanguage(), characters, parts);
+        }
+    }
+}
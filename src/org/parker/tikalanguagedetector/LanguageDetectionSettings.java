@@ -0,0 +1,746 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options for extracting text and detecting languages, shared by the ingest
+ * module, whose job settings extend this class, and the batch detector. The
+ * class does not depend on Autopsy, so the batch detector runs without it.
+ */
+class LanguageDetectionSettings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How the text of embedded documents is handled.
+     */
+    enum EmbeddedMode {
+        /**
+         * Embedded text is detected together with the container's text.
+         */
+        INLINE,
+        /**
+         * Each embedded document is detected on its own.
+         */
+        PER_PART,
+        /**
+         * Embedded documents are not extracted.
+         */
+        SKIP
+    }
+
+    /**
+     * Default number of characters handed to the detector per file. Optimaize
+     * is reliable long before this on running text.
+     */
+    static final int DEFAULT_MAX_CHARACTERS = 10000;
+
+    /**
+     * Default raw detector score at which text extraction stops early.
+     */
+    static final float DEFAULT_CONFIDENCE_THRESHOLD = 0.95f;
+
+    /**
+     * Default number of characters fed to the detector between two checks of
+     * whether the detection has settled.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 2048;
+
+    /**
+     * Default number of consecutive chunks the same language has to lead for
+     * the detection to be considered settled.
+     */
+    static final int DEFAULT_STABLE_CHUNKS = 3;
+
+    /**
+     * Default minimum score margin of the leading language over the
+     * runner-up for a chunk to count as stable.
+     */
+    static final float DEFAULT_STABLE_MARGIN = 0.5f;
+
+    /**
+     * Default size of the largest file hashed by this module when the hash
+     * lookup module has not provided an MD5.
+     */
+    static final long DEFAULT_CACHE_HASH_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Default number of language artifacts committed in one case database
+     * transaction.
+     */
+    static final int DEFAULT_COMMIT_BATCH_SIZE = 200;
+
+    /**
+     * Default longest time a language artifact waits to be committed.
+     */
+    static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 2000;
+
+    /**
+     * Default size of the largest file parsed, larger files are skipped.
+     */
+    static final long DEFAULT_MAX_FILE_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Default longest time a single file may spend in the parser before it is
+     * abandoned.
+     */
+    static final long DEFAULT_PARSE_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Default number of characters extracted from a file after which parsing
+     * stops, which bounds the work done when sampling the whole document.
+     */
+    static final long DEFAULT_MAX_EXTRACTED_CHARACTERS = 20L * 1000 * 1000;
+
+    /**
+     * Default number of levels of embedded documents that are parsed.
+     */
+    static final int DEFAULT_MAX_EMBEDDED_DEPTH = 3;
+
+    /**
+     * Default number of characters handed to the detector per embedded
+     * document when they are detected per part.
+     */
+    static final int DEFAULT_PART_MAX_CHARACTERS = 2000;
+
+    /**
+     * Default number of characters per window when a document is segmented
+     * by language.
+     */
+    static final int DEFAULT_SEGMENT_WINDOW_SIZE = 1000;
+
+    /**
+     * Default maximum number of windows detected per document when it is
+     * segmented by language.
+     */
+    static final int DEFAULT_MAX_SEGMENT_WINDOWS = 100;
+
+    /**
+     * Default size of the largest file detected right away on the ingest
+     * thread in deferred mode.
+     */
+    static final long DEFAULT_FAST_PATH_MAX_BYTES = 64L * 1024;
+
+    /**
+     * Default path fragments of files scheduled first in deferred mode: user
+     * folders, then email attachments.
+     */
+    static final List<String> DEFAULT_PRIORITY_PATHS = Collections.unmodifiableList(Arrays.asList(
+            "/Users/", "/home/", "/Documents and Settings/", //NON-NLS
+            ".pst/", ".ost/", ".mbox/", "/Attachments/")); //NON-NLS
+
+    private int maxCharacters = DEFAULT_MAX_CHARACTERS;
+    private float confidenceThreshold = DEFAULT_CONFIDENCE_THRESHOLD;
+    private boolean sampleDocument = false;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int stableChunks = DEFAULT_STABLE_CHUNKS;
+    private float stableMargin = DEFAULT_STABLE_MARGIN;
+    private boolean useResultCache = true;
+    private boolean persistResultCache = false;
+    private long cacheHashMaxBytes = DEFAULT_CACHE_HASH_MAX_BYTES;
+    private boolean useAllParsers = false;
+    private ArrayList<String> extraParserClasses = new ArrayList<>();
+    private boolean usePipeline = false;
+    private int commitBatchSize = DEFAULT_COMMIT_BATCH_SIZE;
+    private long commitIntervalMillis = DEFAULT_COMMIT_INTERVAL_MILLIS;
+    private ArrayList<String> mimeTypes = new ArrayList<>(DocumentTypeFilter.DEFAULT_MIME_TYPES);
+    private long maxFileBytes = DEFAULT_MAX_FILE_BYTES;
+    private long parseTimeoutMillis = DEFAULT_PARSE_TIMEOUT_MILLIS;
+    private long maxExtractedCharacters = DEFAULT_MAX_EXTRACTED_CHARACTERS;
+    private int maxEmbeddedDepth = DEFAULT_MAX_EMBEDDED_DEPTH;
+    private EmbeddedMode embeddedMode = EmbeddedMode.INLINE;
+    private int partMaxCharacters = DEFAULT_PART_MAX_CHARACTERS;
+    private boolean segmentDocument = false;
+    private int segmentWindowSize = DEFAULT_SEGMENT_WINDOW_SIZE;
+    private int maxSegmentWindows = DEFAULT_MAX_SEGMENT_WINDOWS;
+    private ArrayList<String> candidateLanguages = new ArrayList<>();
+    private float minConfidence = 0.0f;
+    private boolean shortTextMode = false;
+    private boolean deferScheduling = false;
+    private long fastPathMaxBytes = DEFAULT_FAST_PATH_MAX_BYTES;
+    private ArrayList<String> priorityPaths = new ArrayList<>(DEFAULT_PRIORITY_PATHS);
+
+    LanguageDetectionSettings() {
+    }
+
+    /**
+     * Constructs a copy of other settings, so that the copy can be changed
+     * without changing them.
+     *
+     * @param other The settings to copy.
+     */
+    LanguageDetectionSettings(LanguageDetectionSettings other) {
+        maxCharacters = other.maxCharacters;
+        confidenceThreshold = other.confidenceThreshold;
+        sampleDocument = other.sampleDocument;
+        chunkSize = other.chunkSize;
+        stableChunks = other.stableChunks;
+        stableMargin = other.stableMargin;
+        useResultCache = other.useResultCache;
+        persistResultCache = other.persistResultCache;
+        cacheHashMaxBytes = other.cacheHashMaxBytes;
+        useAllParsers = other.useAllParsers;
+        extraParserClasses = new ArrayList<>(other.extraParserClasses);
+        usePipeline = other.usePipeline;
+        commitBatchSize = other.commitBatchSize;
+        commitIntervalMillis = other.commitIntervalMillis;
+        mimeTypes = new ArrayList<>(other.mimeTypes);
+        maxFileBytes = other.maxFileBytes;
+        parseTimeoutMillis = other.parseTimeoutMillis;
+        maxExtractedCharacters = other.maxExtractedCharacters;
+        maxEmbeddedDepth = other.maxEmbeddedDepth;
+        embeddedMode = other.embeddedMode;
+        partMaxCharacters = other.partMaxCharacters;
+        segmentDocument = other.segmentDocument;
+        segmentWindowSize = other.segmentWindowSize;
+        maxSegmentWindows = other.maxSegmentWindows;
+        candidateLanguages = new ArrayList<>(other.candidateLanguages);
+        minConfidence = other.minConfidence;
+        shortTextMode = other.shortTextMode;
+        deferScheduling = other.deferScheduling;
+        fastPathMaxBytes = other.fastPathMaxBytes;
+        priorityPaths = new ArrayList<>(other.priorityPaths);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        readSettings(in.readFields());
+    }
+
+    /**
+     * Reads settings saved by any earlier version. Options added after the
+     * settings were saved are absent from the stream and take their
+     * defaults, instead of the zero values plain deserialization would leave
+     * in them.
+     *
+     * @param fields The saved fields, of this class or of the ingest job
+     *               settings class they were saved with.
+     *
+     * @throws IOException If the settings could not be read.
+     */
+    final void readSettings(ObjectInputStream.GetField fields) throws IOException {
+        maxCharacters = get(fields, "maxCharacters", DEFAULT_MAX_CHARACTERS); //NON-NLS
+        confidenceThreshold = get(fields, "confidenceThreshold", DEFAULT_CONFIDENCE_THRESHOLD); //NON-NLS
+        sampleDocument = get(fields, "sampleDocument", false); //NON-NLS
+        chunkSize = get(fields, "chunkSize", DEFAULT_CHUNK_SIZE); //NON-NLS
+        stableChunks = get(fields, "stableChunks", DEFAULT_STABLE_CHUNKS); //NON-NLS
+        stableMargin = get(fields, "stableMargin", DEFAULT_STABLE_MARGIN); //NON-NLS
+        useResultCache = get(fields, "useResultCache", true); //NON-NLS
+        persistResultCache = get(fields, "persistResultCache", false); //NON-NLS
+        cacheHashMaxBytes = get(fields, "cacheHashMaxBytes", DEFAULT_CACHE_HASH_MAX_BYTES); //NON-NLS
+        useAllParsers = get(fields, "useAllParsers", false); //NON-NLS
+        extraParserClasses = readList(fields, "extraParserClasses", Collections.<String>emptyList()); //NON-NLS
+        usePipeline = get(fields, "usePipeline", false); //NON-NLS
+        commitBatchSize = get(fields, "commitBatchSize", DEFAULT_COMMIT_BATCH_SIZE); //NON-NLS
+        commitIntervalMillis = get(fields, "commitIntervalMillis", DEFAULT_COMMIT_INTERVAL_MILLIS); //NON-NLS
+        mimeTypes = readList(fields, "mimeTypes", DocumentTypeFilter.DEFAULT_MIME_TYPES); //NON-NLS
+        maxFileBytes = get(fields, "maxFileBytes", DEFAULT_MAX_FILE_BYTES); //NON-NLS
+        parseTimeoutMillis = get(fields, "parseTimeoutMillis", DEFAULT_PARSE_TIMEOUT_MILLIS); //NON-NLS
+        maxExtractedCharacters = get(fields, "maxExtractedCharacters", DEFAULT_MAX_EXTRACTED_CHARACTERS); //NON-NLS
+        maxEmbeddedDepth = get(fields, "maxEmbeddedDepth", DEFAULT_MAX_EMBEDDED_DEPTH); //NON-NLS
+        embeddedMode = (EmbeddedMode) get(fields, "embeddedMode", null); //NON-NLS
+        if (embeddedMode == null) {
+            embeddedMode = EmbeddedMode.INLINE;
+        }
+        partMaxCharacters = get(fields, "partMaxCharacters", DEFAULT_PART_MAX_CHARACTERS); //NON-NLS
+        segmentDocument = get(fields, "segmentDocument", false); //NON-NLS
+        segmentWindowSize = get(fields, "segmentWindowSize", DEFAULT_SEGMENT_WINDOW_SIZE); //NON-NLS
+        maxSegmentWindows = get(fields, "maxSegmentWindows", DEFAULT_MAX_SEGMENT_WINDOWS); //NON-NLS
+        candidateLanguages = readList(fields, "candidateLanguages", Collections.<String>emptyList()); //NON-NLS
+        minConfidence = get(fields, "minConfidence", 0.0f); //NON-NLS
+        shortTextMode = get(fields, "shortTextMode", false); //NON-NLS
+        deferScheduling = get(fields, "deferScheduling", false); //NON-NLS
+        fastPathMaxBytes = get(fields, "fastPathMaxBytes", DEFAULT_FAST_PATH_MAX_BYTES); //NON-NLS
+        priorityPaths = readList(fields, "priorityPaths", DEFAULT_PRIORITY_PATHS); //NON-NLS
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<String> readList(ObjectInputStream.GetField fields, String name,
+            List<String> defaultValue) throws IOException {
+        ArrayList<String> list = (ArrayList<String>) get(fields, name, null);
+        return (list != null) ? list : new ArrayList<>(defaultValue);
+    }
+
+    // A saved field is only looked up if the stream has it, since it may
+    // belong to another class than the one whose fields are being read.
+
+    private static boolean isSaved(ObjectInputStream.GetField fields, String name) {
+        return fields.getObjectStreamClass().getField(name) != null;
+    }
+
+    private static int get(ObjectInputStream.GetField fields, String name, int defaultValue) throws IOException {
+        return isSaved(fields, name) ? fields.get(name, defaultValue) : defaultValue;
+    }
+
+    private static long get(ObjectInputStream.GetField fields, String name, long defaultValue) throws IOException {
+        return isSaved(fields, name) ? fields.get(name, defaultValue) : defaultValue;
+    }
+
+    private static float get(ObjectInputStream.GetField fields, String name, float defaultValue) throws IOException {
+        return isSaved(fields, name) ? fields.get(name, defaultValue) : defaultValue;
+    }
+
+    private static boolean get(ObjectInputStream.GetField fields, String name, boolean defaultValue)
+            throws IOException {
+        return isSaved(fields, name) ? fields.get(name, defaultValue) : defaultValue;
+    }
+
+    private static Object get(ObjectInputStream.GetField fields, String name, Object defaultValue)
+            throws IOException {
+        return isSaved(fields, name) ? fields.get(name, defaultValue) : defaultValue;
+    }
+
+    /**
+     * Gets the maximum number of characters extracted from a file for
+     * language detection.
+     *
+     * @return The character budget, or -1 for no limit.
+     */
+    int getMaxCharacters() {
+        return maxCharacters;
+    }
+
+    void setMaxCharacters(int maxCharacters) {
+        this.maxCharacters = maxCharacters;
+    }
+
+    /**
+     * Gets the raw detector score at which extraction of a file stops even if
+     * the character budget has not been used up.
+     *
+     * @return The confidence threshold, greater than 1 to disable.
+     */
+    float getConfidenceThreshold() {
+        return confidenceThreshold;
+    }
+
+    void setConfidenceThreshold(float confidenceThreshold) {
+        this.confidenceThreshold = confidenceThreshold;
+    }
+
+    /**
+     * Whether the character budget is split over samples from the start,
+     * middle and end of a document rather than spent on its start only.
+     *
+     * @return True to sample the whole document.
+     */
+    boolean sampleDocument() {
+        return sampleDocument;
+    }
+
+    void setSampleDocument(boolean sampleDocument) {
+        this.sampleDocument = sampleDocument;
+    }
+
+    /**
+     * Gets the number of characters fed to the detector between two checks
+     * of whether the detection has settled.
+     *
+     * @return The chunk size in characters.
+     */
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Gets the number of consecutive chunks the same language has to lead
+     * by at least the stable margin before extraction stops.
+     *
+     * @return The chunk count, or 0 to only stop on the confidence threshold.
+     */
+    int getStableChunks() {
+        return stableChunks;
+    }
+
+    void setStableChunks(int stableChunks) {
+        this.stableChunks = stableChunks;
+    }
+
+    /**
+     * Gets the minimum score margin of the leading language over the
+     * runner-up for a chunk to count as stable.
+     *
+     * @return The margin.
+     */
+    float getStableMargin() {
+        return stableMargin;
+    }
+
+    void setStableMargin(float stableMargin) {
+        this.stableMargin = stableMargin;
+    }
+
+    /**
+     * Whether files whose content hash was already seen reuse the cached
+     * language instead of being parsed again.
+     *
+     * @return True to use the result cache.
+     */
+    boolean useResultCache() {
+        return useResultCache;
+    }
+
+    void setUseResultCache(boolean useResultCache) {
+        this.useResultCache = useResultCache;
+    }
+
+    /**
+     * Whether cached results are also kept in the case's module directory,
+     * so that re-ingests and further data sources of the case start warm.
+     *
+     * @return True to persist the result cache.
+     */
+    boolean persistResultCache() {
+        return persistResultCache;
+    }
+
+    void setPersistResultCache(boolean persistResultCache) {
+        this.persistResultCache = persistResultCache;
+    }
+
+    /**
+     * Gets the size of the largest file the module hashes itself when no MD5
+     * is available from the hash lookup module.
+     *
+     * @return The size in bytes, or -1 for no limit.
+     */
+    long getCacheHashMaxBytes() {
+        return cacheHashMaxBytes;
+    }
+
+    void setCacheHashMaxBytes(long cacheHashMaxBytes) {
+        this.cacheHashMaxBytes = cacheHashMaxBytes;
+    }
+
+    /**
+     * Whether documents are parsed with every parser of the default Tika
+     * configuration instead of only the OOXML, OLE2 and PDF parsers plus the
+     * configured extra parsers.
+     *
+     * @return True to use all Tika parsers.
+     */
+    boolean useAllParsers() {
+        return useAllParsers;
+    }
+
+    void setUseAllParsers(boolean useAllParsers) {
+        this.useAllParsers = useAllParsers;
+    }
+
+    /**
+     * Gets the fully qualified class names of the Tika parsers used in
+     * addition to the OOXML, OLE2 and PDF parsers.
+     *
+     * @return The parser class names.
+     */
+    List<String> getExtraParserClasses() {
+        return new ArrayList<>(extraParserClasses);
+    }
+
+    void setExtraParserClasses(List<String> extraParserClasses) {
+        this.extraParserClasses = new ArrayList<>(extraParserClasses);
+    }
+
+    /**
+     * Whether files are handed to a pipeline with its own worker threads
+     * instead of being processed on the ingest threads.
+     *
+     * @return True to use the detection pipeline.
+     */
+    boolean usePipeline() {
+        return usePipeline;
+    }
+
+    void setUsePipeline(boolean usePipeline) {
+        this.usePipeline = usePipeline;
+    }
+
+    /**
+     * Gets the number of language artifacts committed to the case database
+     * in one transaction.
+     *
+     * @return The batch size.
+     */
+    int getCommitBatchSize() {
+        return commitBatchSize;
+    }
+
+    void setCommitBatchSize(int commitBatchSize) {
+        this.commitBatchSize = commitBatchSize;
+    }
+
+    /**
+     * Gets the longest time a language artifact waits for its batch to be
+     * committed.
+     *
+     * @return The interval in milliseconds, or 0 to only commit full batches.
+     */
+    long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    void setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+    }
+
+    /**
+     * Gets the MIME types of the files whose language is detected.
+     *
+     * @return The MIME types.
+     */
+    List<String> getMimeTypes() {
+        return new ArrayList<>(mimeTypes);
+    }
+
+    void setMimeTypes(List<String> mimeTypes) {
+        this.mimeTypes = new ArrayList<>(mimeTypes);
+    }
+
+    /**
+     * Gets the size of the largest file that is parsed.
+     *
+     * @return The size in bytes, or -1 for no limit.
+     */
+    long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    void setMaxFileBytes(long maxFileBytes) {
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Gets the longest time a file may spend in the parser.
+     *
+     * @return The timeout in milliseconds, or -1 to parse on the calling
+     *         thread without a timeout.
+     */
+    long getParseTimeoutMillis() {
+        return parseTimeoutMillis;
+    }
+
+    void setParseTimeoutMillis(long parseTimeoutMillis) {
+        this.parseTimeoutMillis = parseTimeoutMillis;
+    }
+
+    /**
+     * Gets the number of characters extracted from a file after which
+     * parsing stops.
+     *
+     * @return The character count, or -1 for no limit.
+     */
+    long getMaxExtractedCharacters() {
+        return maxExtractedCharacters;
+    }
+
+    void setMaxExtractedCharacters(long maxExtractedCharacters) {
+        this.maxExtractedCharacters = maxExtractedCharacters;
+    }
+
+    /**
+     * Gets the number of levels of embedded documents that are parsed.
+     *
+     * @return The depth, 0 to skip all embedded documents or -1 for no limit.
+     */
+    int getMaxEmbeddedDepth() {
+        return maxEmbeddedDepth;
+    }
+
+    void setMaxEmbeddedDepth(int maxEmbeddedDepth) {
+        this.maxEmbeddedDepth = maxEmbeddedDepth;
+    }
+
+    /**
+     * Gets how the text of embedded documents is handled.
+     *
+     * @return The embedded document mode.
+     */
+    EmbeddedMode getEmbeddedMode() {
+        return embeddedMode;
+    }
+
+    void setEmbeddedMode(EmbeddedMode embeddedMode) {
+        this.embeddedMode = embeddedMode;
+    }
+
+    /**
+     * Gets the number of characters handed to the detector per embedded
+     * document when they are detected per part.
+     *
+     * @return The character budget per part.
+     */
+    int getPartMaxCharacters() {
+        return partMaxCharacters;
+    }
+
+    void setPartMaxCharacters(int partMaxCharacters) {
+        this.partMaxCharacters = partMaxCharacters;
+    }
+
+    /**
+     * Whether the text of a document is also split into windows whose
+     * languages are reported as spans, for mixed-language documents.
+     *
+     * @return True to segment documents by language.
+     */
+    boolean segmentDocument() {
+        return segmentDocument;
+    }
+
+    void setSegmentDocument(boolean segmentDocument) {
+        this.segmentDocument = segmentDocument;
+    }
+
+    /**
+     * Gets the number of characters per window when a document is segmented
+     * by language.
+     *
+     * @return The window size.
+     */
+    int getSegmentWindowSize() {
+        return segmentWindowSize;
+    }
+
+    void setSegmentWindowSize(int segmentWindowSize) {
+        this.segmentWindowSize = segmentWindowSize;
+    }
+
+    /**
+     * Gets the maximum number of windows detected per document when it is
+     * segmented by language.
+     *
+     * @return The window limit.
+     */
+    int getMaxSegmentWindows() {
+        return maxSegmentWindows;
+    }
+
+    void setMaxSegmentWindows(int maxSegmentWindows) {
+        this.maxSegmentWindows = maxSegmentWindows;
+    }
+
+    /**
+     * Gets the languages the detector chooses from. Only the profiles of
+     * these languages are loaded and scored.
+     *
+     * @return The ISO codes of the candidate languages, empty for all
+     *         languages.
+     */
+    List<String> getCandidateLanguages() {
+        return new ArrayList<>(candidateLanguages);
+    }
+
+    void setCandidateLanguages(List<String> candidateLanguages) {
+        this.candidateLanguages = new ArrayList<>(candidateLanguages);
+    }
+
+    /**
+     * Gets the detector score below which a language is reported as
+     * undetermined.
+     *
+     * @return The minimum confidence, 0 to report every result.
+     */
+    float getMinConfidence() {
+        return minConfidence;
+    }
+
+    void setMinConfidence(float minConfidence) {
+        this.minConfidence = minConfidence;
+    }
+
+    /**
+     * Whether the detector always uses its algorithm for short text, for
+     * files holding little text such as messages or notes.
+     *
+     * @return True to use the short text algorithm for all text.
+     */
+    boolean shortTextMode() {
+        return shortTextMode;
+    }
+
+    void setShortTextMode(boolean shortTextMode) {
+        this.shortTextMode = shortTextMode;
+    }
+
+    /**
+     * Whether files are queued and detected by priority and size after the
+     * ingest threads hand them over, instead of in the order they arrive.
+     * Deferred files go through the pipeline.
+     *
+     * @return True to defer and reorder files.
+     */
+    boolean deferScheduling() {
+        return deferScheduling;
+    }
+
+    void setDeferScheduling(boolean deferScheduling) {
+        this.deferScheduling = deferScheduling;
+    }
+
+    /**
+     * Gets the size of the largest file detected right away on the ingest
+     * thread in deferred mode.
+     *
+     * @return The size in bytes.
+     */
+    long getFastPathMaxBytes() {
+        return fastPathMaxBytes;
+    }
+
+    void setFastPathMaxBytes(long fastPathMaxBytes) {
+        this.fastPathMaxBytes = fastPathMaxBytes;
+    }
+
+    /**
+     * Gets the path fragments of files scheduled first in deferred mode,
+     * matched without regard to case. Files matching an earlier fragment go
+     * first.
+     *
+     * @return The path fragments, highest priority first.
+     */
+    List<String> getPriorityPaths() {
+        return new ArrayList<>(priorityPaths);
+    }
+
+    void setPriorityPaths(List<String> priorityPaths) {
+        this.priorityPaths = new ArrayList<>(priorityPaths);
+    }
+}
@@ -0,0 +1,535 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.optimaize.langdetect.DetectedLanguage;
+import com.optimaize.langdetect.LanguageDetectorBuilder;
+import com.optimaize.langdetect.i18n.LdLocale;
+import com.optimaize.langdetect.ngram.NgramExtractors;
+import com.optimaize.langdetect.profiles.BuiltInLanguages;
+import com.optimaize.langdetect.profiles.LanguageProfile;
+import com.optimaize.langdetect.profiles.LanguageProfileReader;
+
+import org.apache.tika.language.detect.LanguageConfidence;
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+
+/**
+ * Process-wide, reference counted holder for the Optimaize n-gram language
+ * profiles.
+ * <p>
+ * A model is loaded once per set of candidate languages and short text mode,
+ * reading only the profiles of those languages, and shared read-only by every
+ * module instance of every running ingest job using it. Each ingest thread
+ * gets its own lightweight detector from
+ * {@link #newDetector(Collection, boolean)} which only owns the text buffer,
+ * so calls to detect and reset never race across threads. When the last
+ * ingest job releases the pool the models are only softly reachable, so a
+ * following job reuses them unless the heap actually needed the memory.
+ */
+final class LanguageModelPool {
+
+    private static final Object LOCK = new Object();
+    // Module instances holding the pool, per ingest job. Counted here rather
+    // than with Autopsy's IngestModuleReferenceCounter, because the batch
+    // detector uses the pool without Autopsy on the class path. The counts
+    // also have to change together with the models, under the same lock.
+    private static final Map<Long, Integer> JOB_REF_COUNTS = new HashMap<>();
+
+    // Length below which Optimaize switches to its short text algorithm. This
+    // is the value Tika's OptimaizeLangDetector uses.
+    private static final int SHORT_TEXT_LENGTH = 30;
+    // Probability below which Optimaize leaves a language out of its
+    // results, the default of its detector builder.
+    private static final double REPORTED_PROBABILITY = 0.1;
+    // Probability given to a language left out of the results of one chunk,
+    // so that a single odd chunk cannot rule a language out.
+    private static final double MIN_CHUNK_PROBABILITY = 1e-4;
+
+    private static int activeJobs = 0;
+    private static final ConcurrentMap<String, SharedModel> MODELS = new ConcurrentHashMap<>();
+    private static SoftReference<Map<String, SharedModel>> idleModels = null;
+
+    private LanguageModelPool() {
+    }
+
+    /**
+     * Registers a module instance of the given ingest job as a user of the
+     * model over all languages.
+     *
+     * @param jobId The ingest job identifier.
+     *
+     * @throws IOException If the language profiles could not be read.
+     */
+    static void acquire(long jobId) throws IOException {
+        acquire(jobId, Collections.<String>emptyList(), false);
+    }
+
+    /**
+     * Registers a module instance of the given ingest job as a user of the
+     * model over the given languages, loading their profiles if no other job
+     * holds that model.
+     *
+     * @param jobId     The ingest job identifier.
+     * @param languages The ISO codes of the candidate languages, empty for
+     *                  all languages.
+     * @param shortText True to always use the short text algorithm.
+     *
+     * @throws IOException If the language profiles could not be read.
+     */
+    static void acquire(long jobId, Collection<String> languages, boolean shortText) throws IOException {
+        synchronized (LOCK) {
+            if (MODELS.isEmpty() && idleModels != null) {
+                Map<String, SharedModel> idle = idleModels.get();
+                if (idle != null) {
+                    MODELS.putAll(idle);
+                }
+                idleModels = null;
+            }
+            String key = modelKey(languages, shortText);
+            if (!MODELS.containsKey(key)) {
+                MODELS.put(key, loadModel(languages, shortText));
+            }
+            Integer count = JOB_REF_COUNTS.get(jobId);
+            JOB_REF_COUNTS.put(jobId, (count == null) ? 1 : count + 1);
+            if (count == null) {
+                activeJobs++;
+            }
+        }
+    }
+
+    /**
+     * Releases a module instance of the given ingest job. Once no ingest job
+     * holds the pool the shared models are kept only softly reachable.
+     *
+     * @param jobId The ingest job identifier.
+     */
+    static void release(long jobId) {
+        synchronized (LOCK) {
+            Integer count = JOB_REF_COUNTS.get(jobId);
+            if (count == null) {
+                return;
+            } else if (count > 1) {
+                JOB_REF_COUNTS.put(jobId, count - 1);
+            } else {
+                JOB_REF_COUNTS.remove(jobId);
+                activeJobs--;
+            }
+            if (activeJobs == 0 && !MODELS.isEmpty()) {
+                idleModels = new SoftReference<Map<String, SharedModel>>(new HashMap<>(MODELS));
+                MODELS.clear();
+            }
+        }
+    }
+
+    /**
+     * Creates a detector for the calling thread backed by the shared model
+     * over all languages.
+     *
+     * @return A new detector with its own text buffer.
+     */
+    static LanguageDetector newDetector() {
+        return newDetector(Collections.<String>emptyList(), false);
+    }
+
+    /**
+     * Creates a detector for the calling thread backed by the shared model
+     * over the given languages, which must have been acquired. The returned
+     * detector is not thread-safe and must stay confined to the thread that
+     * uses it.
+     *
+     * @param languages The ISO codes of the candidate languages, empty for
+     *                  all languages.
+     * @param shortText True to always use the short text algorithm.
+     *
+     * @return A new detector with its own text buffer.
+     */
+    static LanguageDetector newDetector(Collection<String> languages, boolean shortText) {
+        SharedModel model = MODELS.get(modelKey(languages, shortText));
+        if (model == null) {
+            throw new IllegalStateException("Language model pool has not been acquired"); //NON-NLS
+        }
+        return new SharedModelDetector(model);
+    }
+
+    /**
+     * Gets the ISO codes of the languages there are built-in profiles for.
+     *
+     * @return The language codes, sorted.
+     */
+    static Set<String> getBuiltInLanguages() {
+        Set<String> languages = new TreeSet<>();
+        for (LdLocale locale : BuiltInLanguages.getLanguages()) {
+            languages.add(locale.getLanguage());
+        }
+        return languages;
+    }
+
+    /**
+     * Gets the key identifying the model over the given languages.
+     *
+     * @param languages The ISO codes of the candidate languages, empty for
+     *                  all languages.
+     * @param shortText True to always use the short text algorithm.
+     *
+     * @return The model key.
+     */
+    static String modelKey(Collection<String> languages, boolean shortText) {
+        StringBuilder key = new StringBuilder();
+        for (String language : new TreeSet<>(languages)) {
+            key.append(key.length() > 0 ? "," : "").append(language);
+        }
+        if (key.length() == 0) {
+            key.append('*');
+        }
+        return shortText ? key.append("/short").toString() : key.toString(); //NON-NLS
+    }
+
+    private static SharedModel loadModel(Collection<String> languages, boolean shortText) throws IOException {
+        LanguageProfileReader reader = new LanguageProfileReader();
+        List<LanguageProfile> profiles;
+        if (languages.isEmpty()) {
+            profiles = reader.readAllBuiltIn();
+        } else {
+            // A language may have several profiles, such as zh-CN and zh-TW.
+            List<LdLocale> locales = new ArrayList<>();
+            for (LdLocale locale : BuiltInLanguages.getLanguages()) {
+                if (languages.contains(locale.getLanguage())) {
+                    locales.add(locale);
+                }
+            }
+            if (locales.isEmpty()) {
+                throw new IOException("No language profiles for " + languages); //NON-NLS
+            }
+            profiles = reader.readBuiltIn(locales);
+        }
+        // Text shorter than the limit is scored with the short text
+        // algorithm, so the largest limit applies it to all text.
+        return new SharedModel(profiles, shortText ? Integer.MAX_VALUE : SHORT_TEXT_LENGTH);
+    }
+
+    /**
+     * Restricts a detector created by the pool to a subset of the languages,
+     * until it is restricted again. Subset models are built once per set of
+     * languages and shared like the full model. Detectors not created by the
+     * pool are left untouched.
+     *
+     * @param detector  The detector of the calling thread.
+     * @param languages The candidate languages, or null for all languages.
+     */
+    static void narrow(LanguageDetector detector, Set<String> languages) {
+        if (detector instanceof SharedModelDetector) {
+            SharedModelDetector pooled = (SharedModelDetector) detector;
+            pooled.model = (languages == null) ? pooled.fullModel : pooled.fullModel.subset(languages);
+        }
+    }
+
+    /**
+     * Detects the language of the text buffered in a detector, for checking
+     * after every chunk whether an incremental detection has settled. A
+     * detector created by the pool only scores the text added since the last
+     * check and combines it with the scores of the earlier chunks, so the
+     * checks stay linear in the length of the text. Other detectors score
+     * all of their text again.
+     *
+     * @param detector The detector of the calling thread.
+     *
+     * @return The detected languages, best first.
+     */
+    static List<LanguageResult> detectIncrementally(LanguageDetector detector) {
+        if (detector instanceof SharedModelDetector) {
+            return ((SharedModelDetector) detector).detectAdded();
+        }
+        return detector.detectAll();
+    }
+
+    /**
+     * Immutable Optimaize detector built over a set of language profiles,
+     * together with the ISO codes of those profiles and the subset models
+     * built from them.
+     */
+    private static final class SharedModel {
+
+        private final List<LanguageProfile> profiles;
+        private final int shortTextLength;
+        private final com.optimaize.langdetect.LanguageDetector detector;
+        private final Set<String> languages = new HashSet<>();
+        private final ConcurrentMap<Set<String>, SharedModel> subsets = new ConcurrentHashMap<>();
+
+        SharedModel(List<LanguageProfile> profiles, int shortTextLength) {
+            this.profiles = profiles;
+            this.shortTextLength = shortTextLength;
+            for (LanguageProfile profile : profiles) {
+                languages.add(profile.getLocale().getLanguage());
+            }
+            detector = LanguageDetectorBuilder.create(NgramExtractors.standard())
+                    .shortTextAlgorithm(shortTextLength)
+                    .withProfiles(profiles)
+                    .build();
+        }
+
+        /**
+         * Gets the model restricted to the given languages, building it on
+         * first use. Two threads may build the same subset at once; only
+         * one of them is kept.
+         */
+        SharedModel subset(Set<String> subsetLanguages) {
+            SharedModel subset = subsets.get(subsetLanguages);
+            if (subset == null) {
+                List<LanguageProfile> subsetProfiles = new ArrayList<>();
+                for (LanguageProfile profile : profiles) {
+                    if (subsetLanguages.contains(profile.getLocale().getLanguage())) {
+                        subsetProfiles.add(profile);
+                    }
+                }
+                if (subsetProfiles.isEmpty()) {
+                    return this;
+                }
+                SharedModel built = new SharedModel(subsetProfiles, shortTextLength);
+                subset = subsets.putIfAbsent(new HashSet<>(subsetLanguages), built);
+                if (subset == null) {
+                    subset = built;
+                }
+            }
+            return subset;
+        }
+    }
+
+    /**
+     * Thread-confined view over a shared, immutable Optimaize model. Only the
+     * buffered text and the scores of the chunks checked so far are per
+     * instance.
+     */
+    private static final class SharedModelDetector extends LanguageDetector {
+
+        private final SharedModel fullModel;
+        private SharedModel model;
+        private final StringBuilder text = new StringBuilder();
+        private Map<String, Double> priors = Collections.emptyMap();
+        // Sums of the log probabilities of the chunks scored by detectAdded,
+        // which cover the text up to scoredLength and used scoredModel.
+        private final Map<String, Double> chunkLogScores = new HashMap<>();
+        private int scoredLength = 0;
+        private SharedModel scoredModel = null;
+
+        SharedModelDetector(SharedModel model) {
+            this.fullModel = model;
+            this.model = model;
+        }
+
+        @Override
+        public LanguageDetector loadModels() throws IOException {
+            // The shared model is already loaded by the pool.
+            return this;
+        }
+
+        @Override
+        public LanguageDetector loadModels(Set<String> languages) throws IOException {
+            // The pooled subset model stands in for loading the profiles.
+            model = languages.isEmpty() ? fullModel : fullModel.subset(languages);
+            return this;
+        }
+
+        @Override
+        public boolean hasModel(String language) {
+            return model.languages.contains(language);
+        }
+
+        /**
+         * Sets the a-priori probabilities of some languages. The shared
+         * Optimaize model cannot be reweighted per thread, so the priors
+         * scale the probabilities it returns instead, relative to an even
+         * prior over the given languages. Languages without a prior keep
+         * their probability. A null or empty map clears the priors.
+         */
+        @Override
+        public LanguageDetector setPriors(Map<String, Float> languageProbabilities) throws IOException {
+            if (languageProbabilities == null || languageProbabilities.isEmpty()) {
+                priors = Collections.emptyMap();
+                return this;
+            }
+            double sum = 0;
+            for (Map.Entry<String, Float> entry : languageProbabilities.entrySet()) {
+                if (!fullModel.languages.contains(entry.getKey())) {
+                    throw new IllegalArgumentException("No language model for " + entry.getKey()); //NON-NLS
+                }
+                if (entry.getValue() == null || entry.getValue() < 0) {
+                    throw new IllegalArgumentException("Invalid prior for " + entry.getKey()); //NON-NLS
+                }
+                sum += entry.getValue();
+            }
+            if (sum <= 0) {
+                throw new IllegalArgumentException("Language priors sum to zero"); //NON-NLS
+            }
+            Map<String, Double> weights = new HashMap<>();
+            for (Map.Entry<String, Float> entry : languageProbabilities.entrySet()) {
+                weights.put(entry.getKey(), entry.getValue() * languageProbabilities.size() / sum);
+            }
+            priors = weights;
+            return this;
+        }
+
+        @Override
+        public void reset() {
+            text.setLength(0);
+            chunkLogScores.clear();
+            scoredLength = 0;
+            scoredModel = null;
+        }
+
+        @Override
+        public void addText(char[] cbuf, int off, int len) {
+            text.append(cbuf, off, len);
+        }
+
+        @Override
+        public List<LanguageResult> detectAll() {
+            List<DetectedLanguage> rawResults = model.detector.getProbabilities(text);
+            List<String> languages = new ArrayList<>(rawResults.size());
+            List<Double> probabilities = new ArrayList<>(rawResults.size());
+            for (DetectedLanguage rawResult : rawResults) {
+                languages.add(rawResult.getLocale().getLanguage());
+                probabilities.add(rawResult.getProbability());
+            }
+            return toResults(languages, probabilities);
+        }
+
+        /**
+         * Scores the text added since the last call and combines it with
+         * the scores of the earlier chunks. With an even prior the
+         * probability of a language given all chunks is proportional to the
+         * product of its probabilities given each chunk, so the log
+         * probabilities are summed per language.
+         */
+        List<LanguageResult> detectAdded() {
+            if (scoredModel != model) {
+                // Narrowed since the last check, so the chunks are scored
+                // again over the new languages.
+                chunkLogScores.clear();
+                scoredLength = 0;
+                scoredModel = model;
+            }
+            if (text.length() > scoredLength) {
+                Map<String, Double> chunkProbabilities = new HashMap<>();
+                for (DetectedLanguage rawResult : model.detector.getProbabilities(
+                        text.subSequence(scoredLength, text.length()))) {
+                    String language = rawResult.getLocale().getLanguage();
+                    Double probability = chunkProbabilities.get(language);
+                    chunkProbabilities.put(language,
+                            rawResult.getProbability() + (probability == null ? 0.0 : probability));
+                }
+                for (String language : model.languages) {
+                    Double probability = chunkProbabilities.get(language);
+                    Double logScore = chunkLogScores.get(language);
+                    chunkLogScores.put(language, (logScore == null ? 0.0 : logScore)
+                            + Math.log(Math.max(MIN_CHUNK_PROBABILITY, probability == null ? 0.0 : probability)));
+                }
+                scoredLength = text.length();
+            }
+
+            double maxLogScore = Double.NEGATIVE_INFINITY;
+            for (double logScore : chunkLogScores.values()) {
+                maxLogScore = Math.max(maxLogScore, logScore);
+            }
+            double total = 0;
+            for (double logScore : chunkLogScores.values()) {
+                total += Math.exp(logScore - maxLogScore);
+            }
+            List<String> languages = new ArrayList<>();
+            List<Double> probabilities = new ArrayList<>();
+            for (Map.Entry<String, Double> entry : chunkLogScores.entrySet()) {
+                double probability = Math.exp(entry.getValue() - maxLogScore) / total;
+                if (probability >= REPORTED_PROBABILITY) {
+                    languages.add(entry.getKey());
+                    probabilities.add(probability);
+                }
+            }
+            List<LanguageResult> results = toResults(languages, probabilities);
+            if (priors.isEmpty() && results.size() > 1) {
+                // Sorted by toResults only when there are priors.
+                sortByScore(results);
+            }
+            return results;
+        }
+
+        /**
+         * Applies the priors to the probabilities of some languages and
+         * turns them into results, best first if there are priors.
+         */
+        private List<LanguageResult> toResults(List<String> languages, List<Double> rawProbabilities) {
+            List<Double> probabilities = new ArrayList<>(rawProbabilities.size());
+            double total = 0;
+            for (int i = 0; i < languages.size(); i++) {
+                Double weight = priors.get(languages.get(i));
+                double probability = rawProbabilities.get(i) * (weight == null ? 1.0 : weight);
+                probabilities.add(probability);
+                total += probability;
+            }
+            List<LanguageResult> results = new ArrayList<>();
+            for (int i = 0; i < languages.size(); i++) {
+                double probability = priors.isEmpty() || total <= 0 ? probabilities.get(i) : probabilities.get(i) / total;
+                LanguageConfidence confidence = probability > 0.9
+                        ? LanguageConfidence.HIGH : LanguageConfidence.MEDIUM;
+                results.add(new LanguageResult(languages.get(i), confidence, (float) probability));
+            }
+            if (!priors.isEmpty()) {
+                sortByScore(results);
+            }
+            if (results.isEmpty()) {
+                results.add(LanguageResult.NULL);
+            }
+            return results;
+        }
+
+        private static void sortByScore(List<LanguageResult> results) {
+            Collections.sort(results, new Comparator<LanguageResult>() {
+                @Override
+                public int compare(LanguageResult first, LanguageResult second) {
+                    return Float.compare(second.getRawScore(), first.getRawScore());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Process-wide cache of detected languages keyed by file content hash, so
+ * that duplicate documents are neither parsed nor detected again.
+ * <p>
+ * The in-memory tier is a bounded LRU map shared by all ingest threads and
+ * jobs. An optional persistent tier appends every new result to a file in
+ * the case's module directory, and is read back into the in-memory tier when
+ * the next ingest job of the case starts. The file is compacted to its most
+ * recent MAX_ENTRIES results when it is opened with stale lines, and when it
+ * grows to twice that many lines.
+ */
+final class LanguageResultCache {
+
+    static final String CACHE_DIR_NAME = "TikaLanguageDetector"; //NON-NLS
+    private static final String CACHE_FILE_NAME = "language_cache.tsv"; //NON-NLS
+    private static final int MAX_ENTRIES = 100000;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    // Marks keys that earlier versions hashed from the ends of a file only.
+    // They do not identify the content, so they are dropped when read.
+    private static final String SAMPLED_HASH_PREFIX = "s"; //NON-NLS
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Logger logger = Logger.getLogger(LanguageResultCache.class.getName());
+    private static final LanguageResultCache INSTANCE = new LanguageResultCache();
+
+    private final LruMap entries = new LruMap(MAX_ENTRIES);
+    private File persistentFile = null;
+    private Writer persistentWriter = null;
+    private int persistentLines = 0;
+    private int persistentUsers = 0;
+
+    private LanguageResultCache() {
+    }
+
+    /**
+     * Gets the process-wide cache.
+     *
+     * @return The cache instance.
+     */
+    static LanguageResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Looks up the result for the given content hash.
+     *
+     * @param hash The lower case hex MD5 of the file content.
+     *
+     * @return The cached result, or null on a miss.
+     */
+    synchronized CachedResult get(String hash) {
+        return entries.get(hash);
+    }
+
+    /**
+     * Adds a result to the cache, and to the persistent tier if one is open.
+     *
+     * @param hash     The lower case hex MD5 of the file content.
+     * @param language The ISO code of the detected language.
+     * @param score    The raw detector score.
+     *
+     * @return The number of entries evicted to make room, 0 or 1.
+     */
+    synchronized int put(String hash, String language, float score) {
+        entries.evicted = 0;
+        entries.put(hash, new CachedResult(language, score));
+        if (persistentWriter != null) {
+            try {
+                writeLine(persistentWriter, hash, language, score);
+                persistentLines++;
+                if (persistentLines > 2 * MAX_ENTRIES) {
+                    File file = persistentFile;
+                    persistentWriter.close();
+                    persistentWriter = null;
+                    compact(file, readCacheFile(file));
+                    openWriter(file);
+                }
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Failed to write to language cache " + persistentFile, ex); //NON-NLS
+                closePersistentTier();
+            }
+        }
+        return entries.evicted;
+    }
+
+    /**
+     * Opens the persistent tier in the given directory, loading its entries
+     * into memory. Each call must be balanced with a call to
+     * {@link #releasePersistentTier()}.
+     *
+     * @param directory The case module directory to keep the cache file in.
+     */
+    synchronized void openPersistentTier(File directory) {
+        persistentUsers++;
+        File file = new File(directory, CACHE_FILE_NAME);
+        if (file.equals(persistentFile) && persistentWriter != null) {
+            return;
+        }
+        closePersistentTier();
+
+        try {
+            persistentLines = 0;
+            if (file.isFile()) {
+                LruMap fileEntries = readCacheFile(file);
+                entries.putAll(fileEntries);
+                if (persistentLines > fileEntries.size()) {
+                    compact(file, fileEntries);
+                }
+            } else {
+                directory.mkdirs();
+            }
+            openWriter(file);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to open language cache " + file, ex); //NON-NLS
+        }
+    }
+
+    /**
+     * Reads the most recent MAX_ENTRIES results of a cache file, counting
+     * its lines in persistentLines.
+     */
+    private LruMap readCacheFile(File file) throws IOException {
+        LruMap fileEntries = new LruMap(MAX_ENTRIES);
+        persistentLines = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                persistentLines++;
+                String[] fields = line.split("\t");
+                if (fields.length == 3 && !fields[0].startsWith(SAMPLED_HASH_PREFIX)) {
+                    try {
+                        fileEntries.put(fields[0], new CachedResult(fields[1], Float.parseFloat(fields[2])));
+                    } catch (NumberFormatException ex) {
+                        // Skip a line left truncated by an earlier crash.
+                    }
+                }
+            }
+        }
+        return fileEntries;
+    }
+
+    /**
+     * Rewrites a cache file with only the given results, oldest first, so
+     * that reading it back keeps their order.
+     */
+    private void compact(File file, LruMap fileEntries) throws IOException {
+        File compacted = new File(file.getPath() + ".tmp"); //NON-NLS
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(compacted), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, CachedResult> entry : fileEntries.entrySet()) {
+                writeLine(writer, entry.getKey(), entry.getValue().language, entry.getValue().score);
+            }
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        persistentLines = fileEntries.size();
+    }
+
+    private void openWriter(File file) throws IOException {
+        persistentWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        persistentFile = file;
+    }
+
+    private static void writeLine(Writer writer, String hash, String language, float score) throws IOException {
+        writer.write(hash + '\t' + language + '\t' + score + '\n');
+    }
+
+    /**
+     * Flushes the persistent tier, closing it once no ingest job uses it.
+     */
+    synchronized void releasePersistentTier() {
+        if (persistentUsers > 0) {
+            persistentUsers--;
+        }
+        if (persistentUsers == 0) {
+            closePersistentTier();
+        } else if (persistentWriter != null) {
+            try {
+                persistentWriter.flush();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Failed to flush language cache " + persistentFile, ex); //NON-NLS
+            }
+        }
+    }
+
+    private void closePersistentTier() {
+        if (persistentWriter != null) {
+            try {
+                persistentWriter.close();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Failed to close language cache " + persistentFile, ex); //NON-NLS
+            }
+        }
+        persistentWriter = null;
+        persistentFile = null;
+    }
+
+    /**
+     * Gets a key for a file's content. The MD5 set by the hash lookup module
+     * is used when present. Otherwise the whole file is hashed here, unless
+     * it is larger than the given limit: a key from part of the content could
+     * give one file the result of another.
+     *
+     * @param file     The file.
+     * @param maxBytes The largest file to hash here, or -1 for no limit.
+     *
+     * @return The lower case hex key, or null if it is not available.
+     *
+     * @throws TskCoreException If the file content could not be read.
+     */
+    static String contentHash(AbstractFile file, long maxBytes) throws TskCoreException {
+        String md5 = file.getMd5Hash();
+        if (md5 != null && !md5.isEmpty()) {
+            return md5.toLowerCase();
+        }
+        long size = file.getSize();
+        if (maxBytes >= 0 && size > maxBytes) {
+            return null;
+        }
+
+        MessageDigest digest = newMd5();
+        digestRange(file, digest, new byte[HASH_BUFFER_SIZE], 0, size);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Gets a short hex digest of a string, used to qualify cache keys.
+     *
+     * @param text The string.
+     *
+     * @return The first 8 hex digits of the string's MD5.
+     */
+    static String shortHash(String text) {
+        return toHex(newMd5().digest(text.getBytes(StandardCharsets.UTF_8))).substring(0, 8);
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5"); //NON-NLS
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void digestRange(AbstractFile file, MessageDigest digest, byte[] buffer,
+            long offset, long length) throws TskCoreException {
+        long end = offset + length;
+        while (offset < end) {
+            int read = file.read(buffer, offset, Math.min(buffer.length, end - offset));
+            if (read <= 0) {
+                break;
+            }
+            digest.update(buffer, 0, read);
+            offset += read;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A detected language as stored in the cache.
+     */
+    static final class CachedResult {
+
+        final String language;
+        final float score;
+
+        CachedResult(String language, float score) {
+            this.language = language;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Access ordered map evicting the least recently used entry once full.
+     */
+    private static final class LruMap extends LinkedHashMap<String, CachedResult> {
+
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+        private int evicted = 0;
+
+        LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            if (size() > maxEntries) {
+                evicted++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Content handler that streams extracted characters straight into a language
+ * detector instead of buffering the whole document text.
+ * <p>
+ * At most a fixed number of characters is kept per file, independent of the
+ * document size. In the default mode the budget is spent on the start of the
+ * document and parsing is stopped as soon as it is used up. When sampling the
+ * whole document, a third of the budget goes to the start and the rest is
+ * kept in fixed buffers holding text from around the middle and from the end,
+ * which are handed to the detector by {@link #finishSample()}.
+ * <p>
+ * Text is fed to the detector incrementally. After every chunk the detector
+ * results are passed to a {@link LanguageStabilityTracker}, and parsing stops
+ * early as soon as the detection has settled. The text fed to the detector
+ * is also counted in a {@link ScriptHistogram}, which settles the detection
+ * without running the detector when the script alone decides the language.
+ * <p>
+ * Early termination is signalled with a SAXException that can be recognized
+ * with {@link #isSamplingComplete(Throwable)}, the same way Tika's
+ * WriteOutContentHandler signals its write limit. The same signal stops the
+ * parse once the extraction limit is reached or the handler is aborted.
+ * <p>
+ * A {@link LanguageSegmenter} can be attached to also receive the streamed
+ * text. Parsing then only stops early once the segmenter needs no more text
+ * either.
+ */
+final class LanguageSamplingContentHandler extends DefaultHandler {
+
+    private final LanguageDetector detector;
+    private final int headBudget;
+    private final int chunkSize;
+    private final LanguageStabilityTracker tracker;
+    private final long maxExtractedCharacters;
+    private char[] middle;
+    private char[] pending;
+    private final char[] tail;
+
+    private long charsSeen = 0;
+    private int headLength = 0;
+    private int chunkLength = 0;
+    private long detectionNanos = 0;
+
+    private long nextMiddleStart;
+    private boolean capturing = false;
+    private long pendingStart = 0;
+    private int pendingLength = 0;
+    private long middleStart = 0;
+    private int middleLength = 0;
+
+    private int tailNext = 0;
+    private int tailLength = 0;
+    private boolean finished = false;
+    private boolean truncated = false;
+    private boolean settled = false;
+    private LanguageSegmenter segmenter = null;
+    private final ScriptHistogram histogram = new ScriptHistogram();
+    private volatile boolean aborted = false;
+
+    /**
+     * Creates a handler feeding the given detector.
+     *
+     * @param detector       The detector to feed; it is not reset.
+     * @param maxCharacters  The character budget, or -1 for no limit.
+     * @param chunkSize      Number of characters fed between two checks of
+     *                       the detector results.
+     * @param tracker        Decides when the detection has settled.
+     * @param sampleDocument True to sample the start, middle and end of the
+     *                       document.
+     * @param maxExtractedCharacters Number of characters after which parsing
+     *                       stops, or -1 for no limit.
+     */
+    LanguageSamplingContentHandler(LanguageDetector detector, int maxCharacters,
+            int chunkSize, LanguageStabilityTracker tracker, boolean sampleDocument,
+            long maxExtractedCharacters) {
+        this.detector = detector;
+        this.chunkSize = chunkSize;
+        this.tracker = tracker;
+        this.maxExtractedCharacters = maxExtractedCharacters;
+        if (sampleDocument && maxCharacters > 0) {
+            int sampleSize = maxCharacters / 3;
+            this.headBudget = maxCharacters - 2 * sampleSize;
+            this.middle = new char[sampleSize];
+            this.pending = new char[sampleSize];
+            this.tail = new char[sampleSize];
+        } else {
+            this.headBudget = maxCharacters;
+            this.middle = null;
+            this.pending = null;
+            this.tail = null;
+        }
+        this.nextMiddleStart = Math.max(headBudget, 0);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (aborted) {
+            throw new SamplingCompleteException(this);
+        }
+        if (segmenter != null) {
+            segmenter.addText(ch, start, length);
+        }
+        int offset = start;
+        int remaining = length;
+
+        if (!settled && (headBudget < 0 || headLength < headBudget)) {
+            int count = (headBudget < 0) ? remaining : Math.min(remaining, headBudget - headLength);
+            feed(ch, offset, count);
+            headLength += count;
+            charsSeen += count;
+            offset += count;
+            remaining -= count;
+
+            chunkLength += count;
+            if (chunkLength >= chunkSize && tracker.isEnabled()) {
+                chunkLength = 0;
+                long detectStart = System.nanoTime();
+                LanguageResult preClassified = histogram.classify(detector);
+                settled = (preClassified != null) 
+                        ? tracker.settle(preClassified) : tracker.update(LanguageModelPool.detectIncrementally(detector));
+                detectionNanos += System.nanoTime() - detectStart;
+                if (settled) {
+                    stopIfSegmented();
+                }
+            }
+        }
+
+        if (tail == null || settled) {
+            // Not sampled, but still counted against the extraction limit,
+            // which matters while a segmenter keeps the parse going.
+            charsSeen += remaining;
+            if (headLength == headBudget || settled) {
+                stopIfSegmented();
+            }
+        } else if (remaining > 0) {
+            captureMiddle(ch, offset, remaining);
+            captureTail(ch, offset, remaining);
+            charsSeen += remaining;
+        }
+
+        if (maxExtractedCharacters > 0 && charsSeen >= maxExtractedCharacters) {
+            truncated = true;
+            throw new SamplingCompleteException(this);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        finishSample();
+    }
+
+    /**
+     * Hands the middle and end samples to the detector. Text already fed
+     * from the start of the document is never repeated. Calling this more
+     * than once has no further effect.
+     */
+    void finishSample() {
+        if (segmenter != null) {
+            segmenter.finish();
+        }
+        if (finished || tail == null || settled) {
+            return;
+        }
+        finished = true;
+
+        if (middleLength == 0 && pendingLength > 0) {
+            swapMiddleBuffers();
+            middleStart = pendingStart;
+            middleLength = pendingLength;
+        }
+
+        // Only use the part of the middle sample that precedes the tail.
+        long tailStart = charsSeen - tailLength;
+        int middleUsable = (int) Math.max(0, Math.min(middleLength, tailStart - middleStart));
+        if (middleUsable > 0) {
+            feed(middle, 0, middleUsable);
+        }
+
+        if (tailLength > 0) {
+            int first = (tailNext - tailLength + tail.length) % tail.length;
+            int firstLength = Math.min(tailLength, tail.length - first);
+            feed(tail, first, firstLength);
+            if (firstLength < tailLength) {
+                feed(tail, 0, tailLength - firstLength);
+            }
+        }
+    }
+
+    private void feed(char[] ch, int offset, int length) {
+        detector.addText(ch, offset, length);
+        histogram.addText(ch, offset, length);
+    }
+
+    /**
+     * Checks whether the given throwable, or any of its causes, is the
+     * early termination signal raised by this handler.
+     *
+     * @param t The throwable thrown by the parser.
+     *
+     * @return True if parsing was stopped because the sample is complete.
+     */
+    boolean isSamplingComplete(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SamplingCompleteException
+                    && ((SamplingCompleteException) cause).source == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Attaches a segmenter that receives all streamed text, until it needs
+     * no more. Must be called before parsing starts.
+     *
+     * @param segmenter The segmenter.
+     */
+    void setSegmenter(LanguageSegmenter segmenter) {
+        this.segmenter = segmenter;
+    }
+
+    /**
+     * Makes the parser stop at the next text it extracts. Safe to call from
+     * a thread other than the one parsing.
+     */
+    void abort() {
+        aborted = true;
+    }
+
+    /**
+     * Checks whether parsing stopped because the extraction limit was
+     * reached before the end of the document.
+     *
+     * @return True if the sample was taken from a truncated document.
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Gets the time spent running the detector on intermediate chunks, which
+     * is part of the time spent parsing.
+     *
+     * @return The detection time in nanoseconds.
+     */
+    long getDetectionNanos() {
+        return detectionNanos;
+    }
+
+    /**
+     * Gets the script histogram of the text fed to the detector.
+     *
+     * @return The histogram.
+     */
+    ScriptHistogram getScriptHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Gets the number of characters received from the parser so far.
+     *
+     * @return The character count.
+     */
+    long getCharactersSeen() {
+        return charsSeen;
+    }
+
+    /**
+     * Stops the parse once the sample is complete, unless an attached
+     * segmenter still needs text.
+     */
+    private void stopIfSegmented() throws SAXException {
+        if (segmenter == null || segmenter.isComplete()) {
+            throw new SamplingCompleteException(this);
+        }
+    }
+
+    /**
+     * Keeps one buffer of text from around the middle of the document. A new
+     * capture starts each time the document has doubled in length since the
+     * last one, and only replaces the previous sample once it is complete.
+     */
+    private void captureMiddle(char[] ch, int offset, int length) {
+        if (!capturing && charsSeen >= nextMiddleStart) {
+            capturing = true;
+            pendingStart = charsSeen;
+            pendingLength = 0;
+        }
+        if (capturing) {
+            int count = Math.min(length, pending.length - pendingLength);
+            System.arraycopy(ch, offset, pending, pendingLength, count);
+            pendingLength += count;
+            if (pendingLength == pending.length) {
+                swapMiddleBuffers();
+                middleStart = pendingStart;
+                middleLength = pendingLength;
+                capturing = false;
+                pendingLength = 0;
+                nextMiddleStart = Math.max(2 * pendingStart, pendingStart + pending.length);
+            }
+        }
+    }
+
+    private void swapMiddleBuffers() {
+        char[] swap = middle;
+        middle = pending;
+        pending = swap;
+    }
+
+    private void captureTail(char[] ch, int offset, int length) {
+        if (tail.length == 0) {
+            return;
+        }
+        int skip = Math.max(0, length - tail.length);
+        for (int i = offset + skip; i < offset + length; i++) {
+            tail[tailNext] = ch[i];
+            tailNext = (tailNext + 1) % tail.length;
+        }
+        tailLength = Math.min(tail.length, tailLength + length);
+    }
+
+    /**
+     * Signals that the handler has seen enough text. The stack trace is not
+     * filled in since the exception is part of normal control flow.
+     */
+    private static final class SamplingCompleteException extends SAXException {
+
+        private static final long serialVersionUID = 1L;
+        private final transient LanguageSamplingContentHandler source;
+
+        SamplingCompleteException(LanguageSamplingContentHandler source) {
+            super("Language detection sample complete"); //NON-NLS
+            this.source = source;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
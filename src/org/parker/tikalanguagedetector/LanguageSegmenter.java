@@ -0,0 +1,202 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+
+/**
+ * Splits streamed text into language spans for mixed-language documents.
+ * <p>
+ * The text is cut into fixed-size windows and the language of each window is
+ * detected on its own, reusing the same detector for every window. Adjacent
+ * windows that agree are merged into one span, whose confidence is the
+ * length weighted mean of the window scores. At most a fixed number of
+ * windows is detected per document, which bounds the cost independent of the
+ * document size. Not thread-safe.
+ */
+final class LanguageSegmenter {
+
+    /**
+     * ISO 639 code for windows without a detected language.
+     */
+    static final String UNDETERMINED = "und"; //NON-NLS
+
+    private final LanguageDetector detector;
+    private final int windowSize;
+    private final int maxWindows;
+    private final List<MutableSpan> spans = new ArrayList<>();
+
+    private long position = 0;
+    private long windowStart = 0;
+    private int windowLength = 0;
+    private int windows = 0;
+    private boolean finished = false;
+
+    /**
+     * Creates a segmenter.
+     *
+     * @param detector   The detector to run on each window; it is reset
+     *                   between windows.
+     * @param windowSize The number of characters per window.
+     * @param maxWindows The maximum number of windows detected.
+     */
+    LanguageSegmenter(LanguageDetector detector, int windowSize, int maxWindows) {
+        this.detector = detector;
+        this.windowSize = Math.max(1, windowSize);
+        this.maxWindows = Math.max(1, maxWindows);
+        detector.reset();
+    }
+
+    /**
+     * Adds streamed text. Text beyond the last window is ignored.
+     *
+     * @param ch     The characters.
+     * @param offset The offset of the text in the array.
+     * @param length The number of characters.
+     */
+    void addText(char[] ch, int offset, int length) {
+        while (length > 0 && !isComplete()) {
+            int count = Math.min(length, windowSize - windowLength);
+            detector.addText(ch, offset, count);
+            windowLength += count;
+            position += count;
+            offset += count;
+            length -= count;
+            if (windowLength == windowSize) {
+                detectWindow();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the segmenter needs no more text.
+     *
+     * @return True once the maximum number of windows has been detected or
+     *         the segmentation has been finished.
+     */
+    boolean isComplete() {
+        return finished || windows >= maxWindows;
+    }
+
+    /**
+     * Detects the last, partial window if it holds at least half a window
+     * of text or is the only one. Calling this more than once has no further
+     * effect.
+     */
+    void finish() {
+        if (finished) {
+            return;
+        }
+        if (windowLength > 0 && windows < maxWindows
+                && (windowLength >= windowSize / 2 || spans.isEmpty())) {
+            detectWindow();
+        }
+        finished = true;
+        detector.reset();
+    }
+
+    /**
+     * Gets the language spans found so far, in text order.
+     *
+     * @return The spans.
+     */
+    List<Span> getSpans() {
+        if (spans.isEmpty()) {
+            return Collections.emptyList();
+        }
+        long total = spans.get(spans.size() - 1).end - spans.get(0).start;
+        List<Span> result = new ArrayList<>(spans.size());
+        for (MutableSpan span : spans) {
+            long length = span.end - span.start;
+            result.add(new Span(span.language, span.start, span.end,
+                    (float) (span.weightedScore / length), (float) length / total));
+        }
+        return result;
+    }
+
+    private void detectWindow() {
+        LanguageResult result = detector.detect();
+        detector.reset();
+        windows++;
+        String language = result.getLanguage().isEmpty() ? UNDETERMINED : result.getLanguage();
+        long length = position - windowStart;
+
+        MutableSpan last = spans.isEmpty() ? null : spans.get(spans.size() - 1);
+        if (last != null && last.language.equals(language)) {
+            last.end = position;
+            last.weightedScore += (double) result.getRawScore() * length;
+        } else {
+            MutableSpan span = new MutableSpan(language, windowStart);
+            span.end = position;
+            span.weightedScore = (double) result.getRawScore() * length;
+            spans.add(span);
+        }
+        windowStart = position;
+        windowLength = 0;
+    }
+
+    private static final class MutableSpan {
+
+        final String language;
+        final long start;
+        long end;
+        double weightedScore;
+
+        MutableSpan(String language, long start) {
+            this.language = language;
+            this.start = start;
+        }
+    }
+
+    /**
+     * A run of text in one language.
+     */
+    static final class Span {
+
+        final String language;
+        final long start;
+        final long end;
+        final float confidence;
+        final float proportion;
+
+        Span(String language, long start, long end, float confidence, float proportion) {
+            this.language = language;
+            this.start = start;
+            this.end = end;
+            this.confidence = confidence;
+            this.proportion = proportion;
+        }
+    }
+}
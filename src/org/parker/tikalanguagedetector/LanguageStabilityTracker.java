@@ -0,0 +1,141 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.util.List;
+
+import org.apache.tika.language.detect.LanguageResult;
+
+/**
+ * Decides when incrementally fed text has settled on a language, so that
+ * extraction of the rest of a document can be skipped.
+ * <p>
+ * The detection is settled as soon as the leading language reaches the
+ * confidence threshold, or once the same language has led with at least the
+ * minimum margin over the runner-up for a number of consecutive chunks.
+ */
+final class LanguageStabilityTracker {
+
+    private final float confidenceThreshold;
+    private final float minMargin;
+    private final int requiredChunks;
+
+    private String leader = null;
+    private int stableChunks = 0;
+    private LanguageResult settledResult = null;
+
+    /**
+     * Creates a tracker.
+     *
+     * @param confidenceThreshold Raw score at which the leader is accepted
+     *                            immediately, greater than 1 to disable.
+     * @param minMargin           Minimum score difference between the leader
+     *                            and the runner-up for a chunk to count as
+     *                            stable.
+     * @param requiredChunks      Number of consecutive stable chunks needed,
+     *                            0 to disable the stability rule.
+     */
+    LanguageStabilityTracker(float confidenceThreshold, float minMargin, int requiredChunks) {
+        this.confidenceThreshold = confidenceThreshold;
+        this.minMargin = minMargin;
+        this.requiredChunks = requiredChunks;
+    }
+
+    /**
+     * Whether this tracker ever needs to look at intermediate results.
+     *
+     * @return False if both rules are disabled.
+     */
+    boolean isEnabled() {
+        return confidenceThreshold <= 1.0f || requiredChunks > 0;
+    }
+
+    /**
+     * Records the detector results after another chunk of text was fed.
+     *
+     * @param results The results of detectAll, best first.
+     *
+     * @return True once the detection has settled.
+     */
+    boolean update(List<LanguageResult> results) {
+        if (settledResult != null) {
+            return true;
+        }
+        if (results.isEmpty() || results.get(0).isUnknown()) {
+            leader = null;
+            stableChunks = 0;
+            return false;
+        }
+
+        LanguageResult best = results.get(0);
+        if (best.getRawScore() >= confidenceThreshold) {
+            settledResult = best;
+            return true;
+        }
+
+        float runnerUp = (results.size() > 1) ? results.get(1).getRawScore() : 0.0f;
+        if (best.getRawScore() - runnerUp < minMargin) {
+            stableChunks = 0;
+        } else if (best.getLanguage().equals(leader)) {
+            stableChunks++;
+        } else {
+            stableChunks = 1;
+        }
+        leader = best.getLanguage();
+
+        if (requiredChunks > 0 && stableChunks >= requiredChunks) {
+            settledResult = best;
+        }
+        return settledResult != null;
+    }
+
+    /**
+     * Settles the detection on a result decided without the detector.
+     *
+     * @param result The decided result.
+     *
+     * @return Always true.
+     */
+    boolean settle(LanguageResult result) {
+        if (settledResult == null) {
+            settledResult = result;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the result the detection settled on.
+     *
+     * @return The settled result, or null if the text has not settled.
+     */
+    LanguageResult getSettledResult() {
+        return settledResult;
+    }
+}
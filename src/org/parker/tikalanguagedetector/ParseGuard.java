@@ -0,0 +1,448 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.extractor.ParsingEmbeddedDocumentExtractor;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.parker.tikalanguagedetector.LanguageDetectionSettings.EmbeddedMode;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Applies the per-file limits of an ingest job to parsing: the size of the
+ * largest file parsed, the wall-clock parse timeout, the number of characters
+ * extracted and the depth of embedded documents followed.
+ * <p>
+ * With a timeout the parse runs on a shared daemon worker while the calling
+ * thread waits for it. When every worker is busy the parse waits for a free
+ * one, and the timeout only starts once it runs. A parse that runs past the
+ * timeout is abandoned: its
+ * input stream and content handler are made to fail on their next use, so
+ * the worker unwinds as soon as the parser reads or emits text again, and
+ * the calling thread moves on without waiting for it. Workers still busy
+ * with an abandoned parse are counted and shown in the job summary. A file
+ * hitting any limit is counted in the job metrics and is never reported as
+ * an error. A parse that does not complete throws an
+ * {@link IncompleteParseException} telling why.
+ * <p>
+ * Embedded documents are handled as the settings ask: their text is either
+ * streamed into the container's handler, detected per part by an
+ * {@link EmbeddedPartDetector}, or not extracted at all.
+ */
+final class ParseGuard {
+
+    // A parse that ignores the abort signal, such as a CPU-bound parse of a
+    // file already in memory, keeps its worker until it returns. The pool is
+    // bounded so such parses cannot pile up threads without end. Parses wait
+    // in the queue while the workers are busy, and files are only skipped
+    // once every worker is stuck in an abandoned parse. Idle workers are
+    // retired after a minute.
+    private static final int MAX_PARSE_WORKERS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+    private static final ThreadPoolExecutor PARSE_WORKERS = new ThreadPoolExecutor(MAX_PARSE_WORKERS,
+            MAX_PARSE_WORKERS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TikaLanguageDetector-parse-" + count.incrementAndGet()); //NON-NLS
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // Parses abandoned after the timeout whose worker has not returned yet.
+    private static final AtomicInteger ABANDONED_RUNNING = new AtomicInteger();
+    // How often a parse waiting for a worker checks whether all are stuck.
+    private static final long WORKER_CHECK_MILLIS = 1000;
+
+    // States of a parse on a worker. A queued parse is withdrawn when its
+    // caller stops waiting before a worker picked it up.
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int ABANDONED = 3;
+    private static final int WITHDRAWN = 4;
+
+    static {
+        PARSE_WORKERS.allowCoreThreadTimeOut(true);
+    }
+
+    private ParseGuard() {
+    }
+
+    /**
+     * Gets the number of parse workers still running a parse that was
+     * abandoned after the timeout.
+     *
+     * @return The number of stuck workers.
+     */
+    static int getStuckWorkerCount() {
+        return ABANDONED_RUNNING.get();
+    }
+
+    /**
+     * Checks a file against the size limit, counting it if it is skipped.
+     *
+     * @param fileSize The size of the file in bytes.
+     * @param settings The ingest job settings.
+     * @param metrics  The ingest job's metrics.
+     *
+     * @return True if the file is small enough to be parsed.
+     */
+    static boolean withinSizeLimit(long fileSize, LanguageDetectionSettings settings,
+            IngestJobMetrics metrics) {
+        long maxFileBytes = settings.getMaxFileBytes();
+        if (maxFileBytes > 0 && fileSize > maxFileBytes) {
+            metrics.recordLimit(IngestJobMetrics.Limit.FILE_SIZE);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a stream into a sampling handler within the limits of the
+     * ingest job. The stream is closed by the parse, also when it is
+     * abandoned.
+     *
+     * @param parser   The parser.
+     * @param stream   The stream to parse.
+     * @param handler  The handler receiving the text. Once the parse is
+     *                 abandoned it may still be in use by the worker, so it
+     *                 and its detector must not be reused.
+     * @param settings The ingest job settings.
+     * @param metrics  The ingest job's metrics.
+     * @param parts    Receives the languages of the embedded documents when
+     *                 they are detected per part, may be null otherwise.
+     *
+     * @throws IncompleteParseException If the parse timed out, was
+     *                                  interrupted or never found a free
+     *                                  worker.
+     * @throws IOException              If the stream could not be read.
+     * @throws SAXException             If the handler failed.
+     * @throws TikaException            If the document could not be parsed.
+     */
+    static void parse(final AutoDetectParser parser, InputStream stream,
+            final LanguageSamplingContentHandler handler, final LanguageDetectionSettings settings,
+            IngestJobMetrics metrics, final List<EmbeddedPartDetector.Part> parts)
+            throws IncompleteParseException, IOException, SAXException, TikaException {
+        long timeoutMillis = settings.getParseTimeoutMillis();
+        boolean embeddedSkipped;
+
+        if (timeoutMillis <= 0) {
+            embeddedSkipped = parseEmbeddedPerSettings(parser, stream, handler, settings, parts);
+        } else {
+            if (allWorkersStuck()) {
+                stream.close();
+                metrics.recordLimit(IngestJobMetrics.Limit.PARSE_WORKERS);
+                throw new IncompleteParseException(IncompleteParseException.Reason.NO_FREE_WORKER);
+            }
+            final AbortableInputStream abortableStream = new AbortableInputStream(stream);
+            final AtomicInteger state = new AtomicInteger(QUEUED);
+            final CountDownLatch started = new CountDownLatch(1);
+            Future<Boolean> result = PARSE_WORKERS.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    if (!state.compareAndSet(QUEUED, RUNNING)) {
+                        return false;
+                    }
+                    started.countDown();
+                    try {
+                        return parseEmbeddedPerSettings(parser, abortableStream, handler, settings, parts);
+                    } finally {
+                        if (!state.compareAndSet(RUNNING, DONE)) {
+                            ABANDONED_RUNNING.decrementAndGet();
+                        }
+                    }
+                }
+            });
+            try {
+                while (!started.await(WORKER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (allWorkersStuck() && state.compareAndSet(QUEUED, WITHDRAWN)) {
+                        stream.close();
+                        metrics.recordLimit(IngestJobMetrics.Limit.PARSE_WORKERS);
+                        throw new IncompleteParseException(IncompleteParseException.Reason.NO_FREE_WORKER);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                boolean parseStarted = !state.compareAndSet(QUEUED, WITHDRAWN);
+                if (parseStarted) {
+                    abandon(result, state, abortableStream, handler);
+                } else {
+                    stream.close();
+                }
+                Thread.currentThread().interrupt();
+                throw new IncompleteParseException(parseStarted
+                        ? IncompleteParseException.Reason.INTERRUPTED
+                        : IncompleteParseException.Reason.INTERRUPTED_BEFORE_START);
+            }
+            try {
+                embeddedSkipped = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                abandon(result, state, abortableStream, handler);
+                metrics.recordLimit(IngestJobMetrics.Limit.PARSE_TIMEOUT);
+                throw new IncompleteParseException(IncompleteParseException.Reason.TIMEOUT);
+            } catch (InterruptedException ex) {
+                abandon(result, state, abortableStream, handler);
+                Thread.currentThread().interrupt();
+                throw new IncompleteParseException(IncompleteParseException.Reason.INTERRUPTED);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof SAXException) {
+                    throw (SAXException) cause;
+                } else if (cause instanceof TikaException) {
+                    throw (TikaException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new TikaException("Unexpected parse failure", cause); //NON-NLS
+            }
+        }
+
+        if (handler.isTruncated()) {
+            metrics.recordLimit(IngestJobMetrics.Limit.EXTRACTED_CHARACTERS);
+        }
+        if (embeddedSkipped) {
+            metrics.recordLimit(IngestJobMetrics.Limit.EMBEDDED_DEPTH);
+        }
+    }
+
+    /**
+     * Parses with the embedded document handling of the settings and
+     * reports whether the depth limit made it skip embedded documents.
+     */
+    private static boolean parseEmbeddedPerSettings(AutoDetectParser parser, InputStream stream,
+            LanguageSamplingContentHandler handler, LanguageDetectionSettings settings,
+            List<EmbeddedPartDetector.Part> parts) throws IOException, SAXException, TikaException {
+        EmbeddedMode mode = settings.getEmbeddedMode();
+        int maxDepth = (mode == EmbeddedMode.SKIP) ? 0
+                : (settings.getMaxEmbeddedDepth() < 0) ? Integer.MAX_VALUE : settings.getMaxEmbeddedDepth();
+        if (maxDepth == Integer.MAX_VALUE && mode == EmbeddedMode.INLINE) {
+            LanguageDetectionCore.parseExample(parser, stream, handler);
+            return false;
+        }
+
+        ParseContext parseContext = TikaParserRegistry.newParseContext(parser);
+        DepthLimitingExtractor extractor = (mode == EmbeddedMode.PER_PART)
+                ? new EmbeddedPartDetector(parseContext, maxDepth, settings, parts)
+                : new DepthLimitingExtractor(parseContext, maxDepth);
+        parseContext.set(EmbeddedDocumentExtractor.class, extractor);
+        LanguageDetectionCore.parseExample(parser, stream, handler, parseContext);
+        // Skipping every embedded document is what was asked for, not a
+        // limit being hit.
+        return extractor.skipped && mode != EmbeddedMode.SKIP;
+    }
+
+    private static boolean allWorkersStuck() {
+        return ABANDONED_RUNNING.get() >= MAX_PARSE_WORKERS;
+    }
+
+    private static void abandon(Future<Boolean> result, AtomicInteger state, AbortableInputStream stream,
+            LanguageSamplingContentHandler handler) {
+        if (state.compareAndSet(RUNNING, ABANDONED)) {
+            ABANDONED_RUNNING.incrementAndGet();
+        }
+        stream.abort();
+        handler.abort();
+        result.cancel(true);
+    }
+
+    /**
+     * Parses embedded documents up to a maximum depth and remembers whether
+     * any were skipped. Confined to the thread of a single parse.
+     */
+    static class DepthLimitingExtractor extends ParsingEmbeddedDocumentExtractor {
+
+        private final int maxDepth;
+        private int depth = 0;
+        private boolean skipped = false;
+
+        DepthLimitingExtractor(ParseContext context, int maxDepth) {
+            super(context);
+            this.maxDepth = maxDepth;
+        }
+
+        @Override
+        public boolean shouldParseEmbedded(Metadata metadata) {
+            if (depth >= maxDepth) {
+                skipped = true;
+                return false;
+            }
+            return super.shouldParseEmbedded(metadata);
+        }
+
+        @Override
+        public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata,
+                boolean outputHtml) throws SAXException, IOException {
+            depth++;
+            try {
+                super.parseEmbedded(stream, handler, metadata, outputHtml);
+            } finally {
+                depth--;
+            }
+        }
+
+        /**
+         * Gets the nesting depth of the embedded document being parsed.
+         *
+         * @return The depth, 0 while parsing the container itself.
+         */
+        int getDepth() {
+            return depth;
+        }
+    }
+
+    /**
+     * Thrown when a parse does not complete. Once a parse was started, its
+     * worker may still be using the handler and its detector, so they must
+     * not be reused.
+     */
+    static final class IncompleteParseException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Why a parse did not complete.
+         */
+        enum Reason {
+            /**
+             * The parse ran past the timeout and was abandoned.
+             */
+            TIMEOUT("Parse abandoned after the timeout"), //NON-NLS
+            /**
+             * The calling thread was interrupted while the parse ran.
+             */
+            INTERRUPTED("Parse interrupted"), //NON-NLS
+            /**
+             * The calling thread was interrupted before the parse started.
+             */
+            INTERRUPTED_BEFORE_START("Interrupted while waiting for a parse worker"), //NON-NLS
+            /**
+             * Every parse worker was stuck in an abandoned parse, so the
+             * parse never started.
+             */
+            NO_FREE_WORKER("All parse workers are stuck in abandoned parses"); //NON-NLS
+
+            private final String message;
+
+            private Reason(String message) {
+                this.message = message;
+            }
+        }
+
+        private final Reason reason;
+
+        IncompleteParseException(Reason reason) {
+            super(reason.message);
+            this.reason = reason;
+        }
+
+        /**
+         * Gets why the parse did not complete.
+         *
+         * @return The reason.
+         */
+        Reason getReason() {
+            return reason;
+        }
+
+        /**
+         * Checks whether the file was parsed at all. A file that was never
+         * parsed can be tried again as it is.
+         *
+         * @return True if the parse started.
+         */
+        boolean wasStarted() {
+            return reason == Reason.TIMEOUT || reason == Reason.INTERRUPTED;
+        }
+    }
+
+    /**
+     * Input stream that fails every read once it has been aborted from
+     * another thread.
+     */
+    private static final class AbortableInputStream extends FilterInputStream {
+
+        private volatile boolean aborted = false;
+
+        AbortableInputStream(InputStream in) {
+            super(in);
+        }
+
+        void abort() {
+            aborted = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkAborted();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkAborted();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkAborted();
+            return super.skip(n);
+        }
+
+        private void checkAborted() throws IOException {
+            if (aborted) {
+                throw new IOException("Parse abandoned after the timeout"); //NON-NLS
+            }
+        }
+    }
+}
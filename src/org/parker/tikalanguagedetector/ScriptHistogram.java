@@ -0,0 +1,243 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tika.language.detect.LanguageConfidence;
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+
+/**
+ * Histogram of the Unicode scripts of the letters in streamed text, used to
+ * decide the language before, or instead of, running the n-gram detector.
+ * <p>
+ * Most scripts are only written in one or a few of the detector's languages.
+ * When nearly all letters belong to a script with a single candidate
+ * language, such as Thai, Greek or Korean, that language is the answer
+ * without any detection. Otherwise the candidates of the scripts present
+ * narrow the languages the detector has to score. Text without any letters,
+ * such as whitespace or numbers, has no language at all.
+ * <p>
+ * Counting does not allocate, so it can run on every SAX characters
+ * callback. Not thread-safe.
+ */
+final class ScriptHistogram {
+
+    // Share of the letters the dominant script needs to answer directly.
+    private static final float DOMINANT_SHARE = 0.9f;
+
+    // Share of the letters below which a script is ignored when narrowing,
+    // such as a few Latin words in Cyrillic text.
+    private static final float MIN_SCRIPT_SHARE = 0.05f;
+
+    // Kana share of the Han and kana letters above which Han characters are
+    // taken as Japanese kanji rather than Chinese.
+    private static final float MIN_KANA_SHARE = 0.05f;
+
+    private static final Character.UnicodeScript[] SCRIPTS = Character.UnicodeScript.values();
+    private static final int LATIN = Character.UnicodeScript.LATIN.ordinal();
+    private static final int HAN = Character.UnicodeScript.HAN.ordinal();
+    private static final int HIRAGANA = Character.UnicodeScript.HIRAGANA.ordinal();
+    private static final int KATAKANA = Character.UnicodeScript.KATAKANA.ordinal();
+
+    // The languages of the Optimaize profiles written in each script.
+    private static final Map<Character.UnicodeScript, String[]> SCRIPT_LANGUAGES
+            = new EnumMap<>(Character.UnicodeScript.class);
+
+    static {
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.LATIN, new String[]{
+            "af", "an", "ast", "br", "ca", "cs", "cy", "da", "de", "en", "es", "et", "eu", "fi", //NON-NLS
+            "fr", "ga", "gl", "hr", "ht", "hu", "id", "is", "it", "lt", "lv", "ms", "mt", "nl", //NON-NLS
+            "no", "oc", "pl", "pt", "ro", "sk", "sl", "so", "sq", "sv", "sw", "tl", "vi", "wa"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.CYRILLIC, new String[]{
+            "be", "bg", "mk", "ru", "sr", "uk"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.ARABIC, new String[]{"ar", "fa", "ur"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.HEBREW, new String[]{"he", "yi"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.DEVANAGARI, new String[]{"hi", "mr", "ne"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.GREEK, new String[]{"el"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.THAI, new String[]{"th"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.KHMER, new String[]{"km"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.BENGALI, new String[]{"bn"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.GUJARATI, new String[]{"gu"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.GURMUKHI, new String[]{"pa"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.TAMIL, new String[]{"ta"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.TELUGU, new String[]{"te"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.KANNADA, new String[]{"kn"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.MALAYALAM, new String[]{"ml"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.HANGUL, new String[]{"ko"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.HIRAGANA, new String[]{"ja"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.KATAKANA, new String[]{"ja"}); //NON-NLS
+        SCRIPT_LANGUAGES.put(Character.UnicodeScript.HAN, new String[]{"zh"}); //NON-NLS
+    }
+
+    private final int[] counts = new int[SCRIPTS.length];
+    private long letters = 0;
+    private char highSurrogate = 0;
+
+    /**
+     * Counts the letters of streamed text by script.
+     *
+     * @param ch     The characters.
+     * @param offset The offset of the text in the array.
+     * @param length The number of characters.
+     */
+    void addText(char[] ch, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = ch[i];
+            if (c < 0x80) {
+                // ASCII fast path.
+                char lower = (char) (c | 0x20);
+                if (lower >= 'a' && lower <= 'z') {
+                    counts[LATIN]++;
+                    letters++;
+                }
+                highSurrogate = 0;
+                continue;
+            }
+            int codePoint = c;
+            if (Character.isHighSurrogate(c)) {
+                // The pair may be split over two callbacks.
+                highSurrogate = c;
+                continue;
+            } else if (Character.isLowSurrogate(c)) {
+                if (highSurrogate == 0) {
+                    continue;
+                }
+                codePoint = Character.toCodePoint(highSurrogate, c);
+            }
+            highSurrogate = 0;
+            if (Character.isLetter(codePoint)) {
+                counts[Character.UnicodeScript.of(codePoint).ordinal()]++;
+                letters++;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the counted text has no letters, so it has no language.
+     *
+     * @return True for empty, whitespace only or numeric only text.
+     */
+    boolean isEmpty() {
+        return letters == 0;
+    }
+
+    /**
+     * Decides the language from the scripts alone, if nearly all letters
+     * belong to a script written in only one of the detector's languages.
+     *
+     * @param detector The detector whose languages are the candidates.
+     *
+     * @return The language, scored by the share of the dominant script, or
+     *         null if the detector has to decide.
+     */
+    LanguageResult classify(LanguageDetector detector) {
+        if (letters == 0) {
+            return null;
+        }
+        int dominant = 0;
+        for (int script = 1; script < counts.length; script++) {
+            if (count(script) > count(dominant)) {
+                dominant = script;
+            }
+        }
+        float share = (float) count(dominant) / letters;
+        if (share < DOMINANT_SHARE) {
+            return null;
+        }
+        String[] languages = SCRIPT_LANGUAGES.get(SCRIPTS[dominant]);
+        if (languages == null) {
+            return null;
+        }
+        String candidate = null;
+        for (String language : languages) {
+            if (detector.hasModel(language)) {
+                if (candidate != null) {
+                    return null;
+                }
+                candidate = language;
+            }
+        }
+        return (candidate != null) ? new LanguageResult(candidate, LanguageConfidence.HIGH, share) : null;
+    }
+
+    /**
+     * Gets the detector languages written in the scripts of the counted
+     * text, ignoring scripts with only a few letters.
+     *
+     * @param detector The detector whose languages are the candidates.
+     *
+     * @return The candidate languages, or null if they cannot be narrowed
+     *         down because a script is unknown or has no candidates.
+     */
+    Set<String> getCandidates(LanguageDetector detector) {
+        if (letters == 0) {
+            return null;
+        }
+        Set<String> candidates = new HashSet<>();
+        for (int script = 0; script < counts.length; script++) {
+            if (count(script) == 0 || count(script) < letters * MIN_SCRIPT_SHARE) {
+                continue;
+            }
+            String[] languages = SCRIPT_LANGUAGES.get(SCRIPTS[script]);
+            if (languages == null) {
+                return null;
+            }
+            for (String language : languages) {
+                if (detector.hasModel(language)) {
+                    candidates.add(language);
+                }
+            }
+        }
+        return candidates.isEmpty() ? null : candidates;
+    }
+
+    /**
+     * Gets the letter count of a script, counting Han characters as kana in
+     * Japanese text.
+     */
+    private long count(int script) {
+        int kana = counts[HIRAGANA] + counts[KATAKANA];
+        boolean japanese = kana > 0 && kana >= (kana + counts[HAN]) * MIN_KANA_SHARE;
+        if (!japanese) {
+            return counts[script];
+        } else if (script == HIRAGANA) {
+            return kana + counts[HAN];
+        } else if (script == HAN || script == KATAKANA) {
+            return 0;
+        }
+        return counts[script];
+    }
+}
@@ -29,41 +29,38 @@
  */
 package org.parker.tikalanguagedetector;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 
+import org.sleuthkit.autopsy.casemodule.Case;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.ingest.FileIngestModule;
 import org.sleuthkit.autopsy.ingest.IngestModule;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestServices;
-import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.BlackboardArtifact;
-import org.sleuthkit.datamodel.BlackboardArtifact.ARTIFACT_TYPE;
 import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.ReadContentInputStream;
+import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
+import org.sleuthkit.datamodel.TskDataException;
 import org.sleuthkit.datamodel.TskData;
-import org.sleuthkit.datamodel.ReadContentInputStream;
 import org.openide.util.NbBundle;
 
 import org.apache.tika.exception.TikaException;
-import org.apache.tika.langdetect.OptimaizeLangDetector;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.language.detect.LanguageDetector;
 import org.apache.tika.language.detect.LanguageResult;
-import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.sax.BodyContentHandler;
 import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
 import org.xml.sax.SAXException;
 
@@ -75,54 +72,112 @@ import org.xml.sax.SAXException;
  */
 class TikaLanguageDetectorFileIngestModule implements FileIngestModule {
 
+    private final TikaLanguageDetectorIngestJobSettings settings;
     private IngestJobContext context = null;
     private long jobId;
-    private static final HashMap<Long, IngestJobTotals> totalsForIngestJobs = new HashMap<>();
     private static final IngestModuleReferenceCounter REF_COUNTER = new IngestModuleReferenceCounter();
-    private static final HashMap<Long, Long> ART_CNT_FOR_INGEST_JOBS = new HashMap<>();
+    private static final Logger logger = Logger.getLogger(TikaLanguageDetectorFileIngestModule.class.getName());
     private static final BlackboardAttribute.ATTRIBUTE_TYPE LANG_ATTR = BlackboardAttribute.ATTRIBUTE_TYPE.TSK_TEXT_LANGUAGE;
+    private static final String DOMINANT_LANG_ATTR_NAME = "TIKA_LANG_DOMINANT"; //NON-NLS
+    private static final String PART_LANG_ATTR_NAME = "TIKA_LANG_EMBEDDED_PART"; //NON-NLS
+    private static final String SEGMENT_LANG_ATTR_NAME = "TIKA_LANG_SEGMENT"; //NON-NLS
+    // Custom attribute types of the current case, for embedded part and 
+    // segment results.
+    private static volatile BlackboardAttribute.Type dominantLangAttr = null;
+    private static volatile BlackboardAttribute.Type partLangAttr = null;
+    private static volatile BlackboardAttribute.Type segmentLangAttr = null;
 
-    //static LanguageIdentifier detector;
-    private static LanguageDetector detector;
-    private static final HashMap<String, String> LANG_LOOKUP = new HashMap<>();
+    // Thread-confined view over the language profiles shared by the pool.
+    private LanguageDetector detector = null;
+    // Thread-confined read buffers, reused across files.
+    private ContentReader reader = null;
+    // Holds the start of a file without a MIME type while it is sniffed.
+    private final byte[] sniffBuffer = new byte[DocumentTypeFilter.SNIFF_LENGTH];
+    // Extraction and detection over the thread-safe parser shared by all 
+    // module instances.
+    private LanguageDetectionCore core = null;
+    // Buffers the job's artifacts until they are committed in a batch.
+    private LanguageArtifactBatcher batcher = null;
+    // Set when the job processes files off the ingest threads.
+    private DetectionPipeline pipeline = null;
     
-    // Using file extensions for simple validaiton. This could be improved by 
-    // using the mime-type definitions, but the File Type identification module 
-    // does not have to be enabled for an ingestion...
-    private static final Set<String> SUPPORTED_EXTENSIONS = new HashSet<>(Arrays.asList(
-            new String[] {"doc", "docx", "xls", "xlsx", "ppt", "pptx", "pdf"})); 
+    // Selects files by MIME type, falling back to sniffing the file header 
+    // when the File Type identification module has not been run.
+    private final DocumentTypeFilter documentFilter;
     
+    TikaLanguageDetectorFileIngestModule(TikaLanguageDetectorIngestJobSettings settings) {
+        this.settings = settings;
+        this.documentFilter = new DocumentTypeFilter(settings.getMimeTypes());
+    }
+
     @Override
     public void startUp(IngestJobContext context) throws IngestModuleException {
         
         this.context = context;
         jobId = context.getJobId();
-        REF_COUNTER.incrementAndGet(context.getJobId());
-        
-        // Populate the language lookup map with the human readable form of the 
-        // ISO code return value.
-        initLookupMap(LANG_LOOKUP);
+        if (REF_COUNTER.incrementAndGet(jobId) == 1) {
+            // Created here rather than for the first file, so the job's
+            // times are measured from its start and the progress line runs
+            // from then on.
+            IngestJobMetrics.forJob(jobId);
+            IngestJobLog.forJob(jobId);
+            if (settings.useResultCache() && settings.persistResultCache()) {
+                // The first module instance of the job opens the case's 
+                // persistent result cache for all of them.
+                LanguageResultCache.getInstance().openPersistentTier(new File(
+                        Case.getCurrentCase().getModuleDirectory(), 
+                        LanguageResultCache.CACHE_DIR_NAME));
+            }
+            if (settings.getEmbeddedMode() == LanguageDetectionSettings.EmbeddedMode.PER_PART
+                    || settings.segmentDocument()) {
+                try {
+                    initLanguageAttributeTypes(Case.getCurrentCase().getSleuthkitCase());
+                } catch (TskCoreException ex) {
+                    throw new IngestModule.IngestModuleException(
+                            NbBundle.getMessage(TikaLanguageDetectorFileIngestModuleFactory.class, 
+                            "TikaLanguageDetectorFileIngestModule.attributeTypeFailure"), 
+                            ex);
+                }
+            }
+        }
         
         try {
-            detector = new OptimaizeLangDetector().loadModels();
+            LanguageModelPool.acquire(jobId, settings.getCandidateLanguages(), settings.shortTextMode());
+            detector = LanguageModelPool.newDetector(settings.getCandidateLanguages(), settings.shortTextMode());
         } catch (IOException ex) {
             throw new IngestModule.IngestModuleException(
                     NbBundle.getMessage(TikaLanguageDetectorFileIngestModuleFactory.class, 
                     "TikaLanguageDetectorFileIngestModule.languageModelLoadFailure"), 
                     ex);
         }
+        
+        try {
+            AutoDetectParser parser = settings.useAllParsers() 
+                    ? TikaParserRegistry.getFullParser() 
+                    : TikaParserRegistry.getParser(settings.getExtraParserClasses());
+            core = new LanguageDetectionCore(settings, parser);
+        } catch (TikaException ex) {
+            throw new IngestModule.IngestModuleException(
+                    NbBundle.getMessage(TikaLanguageDetectorFileIngestModuleFactory.class, 
+                    "TikaLanguageDetectorFileIngestModule.parserLoadFailure"), 
+                    ex);
+        }
+        
+        batcher = LanguageArtifactBatcher.forJob(jobId, settings);
+        if (settings.usePipeline() || settings.deferScheduling()) {
+            pipeline = DetectionPipeline.forJob(context, core, batcher);
+        }
+        if (pipeline == null || settings.deferScheduling()) {
+            reader = new ContentReader();
+        }
     }
 
     @Override
     public IngestModule.ProcessResult process(AbstractFile file) {
 
-        // TODO: Make logger global
         if (this.context.fileIngestIsCancelled() == true) {
             // if it was cancelled by the user, result is OK
-            IngestServices ingestServices = IngestServices.getInstance();
-            Logger logger = ingestServices.getLogger(
-                    TikaLanguageDetectorFileIngestModuleFactory.getModuleName());
-            logger.log(Level.INFO, "PhotoRec cancelled by user"); // NON-NLS
+            logger.log(Level.INFO, "Tika Language Detector cancelled by user"); // NON-NLS
             MessageNotifyUtil.Notify.info(
                     TikaLanguageDetectorFileIngestModuleFactory.getModuleName(),
                     "Tika Language Detector cancelled by user");
@@ -141,198 +196,351 @@ class TikaLanguageDetectorFileIngestModule implements FileIngestModule {
             return IngestModule.ProcessResult.OK;
         }
 
-        if (SUPPORTED_EXTENSIONS.contains(file.getNameExtension())){
+        boolean isDocument;
+        try {
+            isDocument = isDocument(file);
+        } catch (TskCoreException | IOException ex) {
+            IngestJobLog.forJob(jobId).fileFailed(Level.SEVERE, file, "Error reading file header", ex); //NON-NLS
+            return IngestModule.ProcessResult.ERROR;
+        }
+
+        if (isDocument){
+            // In deferred mode small files are still detected right away,
+            // which gives the first results quickly.
+            boolean fastPath = settings.deferScheduling() && file.getSize() <= settings.getFastPathMaxBytes();
+            if (pipeline != null && !fastPath) {
+                // The pipeline blocks here while it is full, which keeps the
+                // ingest threads from running ahead of the workers.
+                try {
+                    pipeline.submit(file);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return IngestModule.ProcessResult.OK;
+            }
+            
             // Extracts the text from the file and processes it using Tika's 
             // language detection techniques.
+            IngestJobLog log = IngestJobLog.forJob(jobId);
             try {
-                long startTime = System.currentTimeMillis();
-                InputStream fileStream= new ReadContentInputStream(file);
-                String text = parseExample(fileStream);
-                String language = languageDetection(text);
-                
-                System.out.println("INFO :: " + file.getName() + " :: " + language);
-                System.out.println(file.getName() + " language: " + language);
+                IngestJobMetrics metrics = IngestJobMetrics.forJob(jobId);
+                long startTime = System.nanoTime();
 
-                // Make an attribute using the ID for the attribute LANG_ATTR 
-                // that was previously created.
-                
-                // After the smutdetect result example...
-                Collection<BlackboardAttribute> attributes = new ArrayList<>();
-                attributes.add(new BlackboardAttribute(LANG_ATTR, 
-                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName(), 
-                        language));
-                attributes.add(new BlackboardAttribute(
-                        BlackboardAttribute.ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(),
-                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName(),
-                        "Language_Detected"));
-                
-                // Add the to the general info artifact for the file. In a
-                // real module, you would likely have more complex data types 
-                // and be making more specific artifacts.
-                //BlackboardArtifact art = file.getGenInfoArtifact();
-                BlackboardArtifact art = file.newArtifact(BlackboardArtifact.ARTIFACT_TYPE.TSK_INTERESTING_FILE_HIT);
-                art.addAttributes(attributes);
+                // Duplicate content is looked up by hash and skips parsing 
+                // and detection entirely.
+                String hash = getContentHash(file, settings, metrics);
+                LanguageResultCache.CachedResult cached = lookupCachedResult(metrics, hash);
 
-                // This method is thread-safe with per ingest job reference counted
-                // management of shared data.
-                addToBlackboardPostCount(context.getJobId(), 1L);
+                String isoCode;
+                LanguageDetectionCore.DocumentLanguage document = null;
+                if (cached != null) {
+                    isoCode = cached.language;
+                } else {
+                    if (!ParseGuard.withinSizeLimit(file.getSize(), settings, metrics)) {
+                        return IngestModule.ProcessResult.OK;
+                    }
 
-                // Fire an event to notify any listeners for blackboard postings.
-                ModuleDataEvent event = new ModuleDataEvent(
-                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName(), 
-                        ARTIFACT_TYPE.TSK_INTERESTING_FILE_HIT);
-                IngestServices.getInstance().fireModuleDataEvent(event);
+                    long stageStart = System.nanoTime();
+                    InputStream fileStream = reader.open(file, metrics);
+                    metrics.recordStage(IngestJobMetrics.Stage.STREAM_OPEN, System.nanoTime() - stageStart);
 
-                addToTotals(jobId, (System.currentTimeMillis() - startTime));
+                    try {
+                        document = core.detect(fileStream, detector, metrics);
+                    } catch (ParseGuard.IncompleteParseException ex) {
+                        if (ex.wasStarted()) {
+                            // The abandoned parse may still feed the
+                            // detector and read from the buffers, so both
+                            // are replaced.
+                            detector = core.newDetector();
+                            reader = new ContentReader();
+                        }
+                        log.fileFailed(Level.WARNING, file, ex.getMessage() + ", skipping file", null); //NON-NLS
+                        return IngestModule.ProcessResult.OK;
+                    }
+                    isoCode = document.getLanguage().getLanguage();
+                    cacheResult(metrics, hash, document.getLanguage());
+                }
+                String language = LanguageDetectionCore.getDisplayName(isoCode);
+
+                if (document != null) {
+                    postLanguageArtifact(batcher, file, language, 
+                            document.getParts().isEmpty() ? null : document.getDominantLanguage(), 
+                            document.getParts(), document.getSpans());
+                } else {
+                    postLanguageArtifact(batcher, file, language, null, null, null);
+                }
+
+                long nanos = System.nanoTime() - startTime;
+                metrics.recordFile(file.getNameExtension(), language, nanos);
+                log.fileProcessed(file, isoCode, cached != null, nanos);
                 return IngestModule.ProcessResult.OK;
 
-            } catch (TskCoreException ex) {
-                IngestServices ingestServices = IngestServices.getInstance();
-                Logger logger = ingestServices.getLogger(
-                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName());
-                logger.log(Level.SEVERE, "Error processing file (id = " + file.getId() + ")", ex);
-                return IngestModule.ProcessResult.ERROR;
-            } catch (IOException | SAXException | TikaException ex) {
-                IngestServices ingestServices = IngestServices.getInstance();
-                Logger logger = ingestServices.getLogger(
-                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName());
-                logger.log(Level.SEVERE, 
-                           "Error processing file (id = " + file.getId() + ")", 
-                           ex);
+            } catch (TskCoreException | IOException | SAXException | TikaException ex) {
+                log.fileFailed(Level.SEVERE, file, "Error processing file", ex); //NON-NLS
                 return IngestModule.ProcessResult.ERROR;
             }
         }
         return IngestModule.ProcessResult.OK;
     }
 
-    @Override
-    public void shutDown() {
-        // This method is thread-safe with per ingest job reference counted
-        // management of shared data.
-        //reportBlackboardPostCount(context.getJobId());
-        
-        Long refCount = REF_COUNTER.decrementAndGet(jobId);
-        if (refCount == 0) {
-            //Long filesCount = ART_CNT_FOR_INGEST_JOBS.remove(jobId);
-            IngestJobTotals jobTotals;
-            synchronized (this) {
-                jobTotals = totalsForIngestJobs.remove(jobId);
-            }
-            if (jobTotals != null) {
-                StringBuilder detailsSb = new StringBuilder();
-                detailsSb.append("<table border='0' cellpadding='4' width='280'>"); //NON-NLS
-                detailsSb.append("<tr><td>").append(TikaLanguageDetectorFileIngestModuleFactory.getModuleName()).append("</td></tr>"); //NON-NLS
-                detailsSb.append("<tr><td>") //NON-NLS
-                        .append("Total Processing Time")
-                        .append("</td><td>").append(jobTotals.matchTime).append("</td></tr>\n"); //NON-NLS
-                detailsSb.append("<tr><td>") //NON-NLS
-                        .append("Total Files Processed")
-                        .append("</td><td>").append(jobTotals.numFiles).append("</td></tr>\n"); //NON-NLS
-                detailsSb.append("</table>"); //NON-NLS
-            
-            String msgText = String.format("Tika Language Detector Results");
-            IngestMessage message = IngestMessage.createMessage(
-                    IngestMessage.MessageType.INFO,
-                    TikaLanguageDetectorFileIngestModuleFactory.getModuleName(),
-                    msgText,
-                    detailsSb.toString());
-            IngestServices.getInstance().postMessage(message);
-            }
+    /**
+     * Gets the content hash used as the result cache key for a file.
+     *
+     * @param file     The file.
+     * @param settings The ingest job settings.
+     * @param metrics  The ingest job's metrics.
+     *
+     * @return The hash, qualified by the detection settings that change the
+     *         result, or null if the cache is disabled or no hash is
+     *         available.
+     *
+     * @throws TskCoreException If the file content could not be read.
+     */
+    static String getContentHash(AbstractFile file, LanguageDetectionSettings settings, 
+            IngestJobMetrics metrics) throws TskCoreException {
+        // The cache holds a single language per file, so it cannot stand in 
+        // for a per part detection or a segmentation.
+        if (!settings.useResultCache() 
+                || settings.getEmbeddedMode() == LanguageDetectionSettings.EmbeddedMode.PER_PART
+                || settings.segmentDocument()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        String hash = LanguageResultCache.contentHash(file, settings.getCacheHashMaxBytes());
+        metrics.recordStage(IngestJobMetrics.Stage.CONTENT_HASH, System.nanoTime() - start);
+        if (hash != null) {
+            // Jobs extracting or detecting differently must not share 
+            // results.
+            hash += '/' + getResultSettingsKey(settings);
         }
+        return hash;
     }
 
-    synchronized static void addToBlackboardPostCount(long ingestJobId, long countToAdd) {
-        Long fileCount = ART_CNT_FOR_INGEST_JOBS.get(ingestJobId);
+    /**
+     * Gets a short key of the settings that change the language detected for
+     * a file: the language model, the reporting threshold, the parsers and
+     * how much text is extracted and sampled.
+     *
+     * @param settings The ingest job settings.
+     *
+     * @return The settings key.
+     */
+    static String getResultSettingsKey(LanguageDetectionSettings settings) {
+        List<String> parsers = settings.getExtraParserClasses();
+        Collections.sort(parsers);
+        StringBuilder key = new StringBuilder()
+                .append(LanguageModelPool.modelKey(settings.getCandidateLanguages(), settings.shortTextMode()))
+                .append('|').append(settings.getMinConfidence())
+                .append('|').append(settings.useAllParsers() ? "*" : parsers) //NON-NLS
+                .append('|').append(settings.getEmbeddedMode())
+                .append('|').append(settings.getMaxEmbeddedDepth())
+                .append('|').append(settings.getMaxCharacters())
+                .append('|').append(settings.getMaxExtractedCharacters())
+                .append('|').append(settings.sampleDocument())
+                .append('|').append(settings.segmentDocument())
+                .append('|').append(settings.getConfidenceThreshold())
+                .append('|').append(settings.getChunkSize())
+                .append('|').append(settings.getStableChunks())
+                .append('|').append(settings.getStableMargin());
+        return LanguageResultCache.shortHash(key.toString());
+    }
 
-        // Ensures that this job has an entry
-        if (fileCount == null) {
-            fileCount = 0L;
-            ART_CNT_FOR_INGEST_JOBS.put(ingestJobId, fileCount);
+    /**
+     * Looks a content hash up in the result cache and counts the hit or miss
+     * for the ingest job.
+     *
+     * @param metrics The ingest job's metrics.
+     * @param hash    The content hash, may be null.
+     *
+     * @return The cached result, or null on a miss.
+     */
+    static LanguageResultCache.CachedResult lookupCachedResult(IngestJobMetrics metrics, String hash) {
+        if (hash == null) {
+            return null;
         }
-
-        fileCount += countToAdd;
-        ART_CNT_FOR_INGEST_JOBS.put(ingestJobId, fileCount);
+        LanguageResultCache.CachedResult cached = LanguageResultCache.getInstance().get(hash);
+        metrics.recordCacheLookup(cached != null);
+        return cached;
     }
-    
-    // https://tika.apache.org/1.14/examples.html
-    public static String parseExample(InputStream inputStream) throws IOException, SAXException, TikaException {
-        // setting the BodyContentHandler 'ctor to -1 bypasses the init 100000 
-        // char limit for file processing
-        BodyContentHandler handler = new BodyContentHandler(-1);
-        AutoDetectParser parser = new AutoDetectParser();
-        Metadata metadata = new Metadata();
-        try (InputStream stream = inputStream) {
-            parser.parse(stream, handler, metadata);
-            return handler.toString();
+
+    /**
+     * Adds a detection result to the result cache and counts any eviction
+     * for the ingest job.
+     *
+     * @param metrics The ingest job's metrics.
+     * @param hash    The content hash, may be null.
+     * @param result  The detected language.
+     */
+    static void cacheResult(IngestJobMetrics metrics, String hash, LanguageResult result) {
+        if (hash == null) {
+            return;
         }
+        int evicted = LanguageResultCache.getInstance().put(
+                hash, result.getLanguage(), result.getRawScore());
+        metrics.recordCacheEvictions(evicted);
     }
-    
-    public static String languageDetection(String text) throws IOException {
 
-        LanguageResult result = detector.detect(text);
-        detector.reset();
-        System.out.println("INFO :: language detected :: " + result.getLanguage());
+    /**
+     * Queues the detected language of a file for posting to the blackboard.
+     *
+     * @param batcher          The ingest job's artifact batcher.
+     * @param file             The file.
+     * @param language         The display name of the detected language.
+     * @param dominantLanguage The ISO code of the dominant language over the
+     *                         file and its embedded documents, may be null.
+     * @param parts            The languages of the embedded documents, may
+     *                         be null.
+     * @param spans            The language spans of the file's text, may be
+     *                         null.
+     *
+     * @throws TskCoreException If the artifact batch could not be committed.
+     */
+    static void postLanguageArtifact(LanguageArtifactBatcher batcher, AbstractFile file, String language,
+            String dominantLanguage, List<EmbeddedPartDetector.Part> parts, 
+            List<LanguageSegmenter.Span> spans) throws TskCoreException {
+        // Make an attribute using the ID for the attribute LANG_ATTR 
+        // that was previously created.
+        
+        // After the smutdetect result example...
+        Collection<BlackboardAttribute> attributes = new ArrayList<>();
+        attributes.add(new BlackboardAttribute(LANG_ATTR, 
+                TikaLanguageDetectorFileIngestModuleFactory.getModuleName(), 
+                language));
+        attributes.add(new BlackboardAttribute(
+                BlackboardAttribute.ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(),
+                TikaLanguageDetectorFileIngestModuleFactory.getModuleName(),
+                "Language_Detected"));
+        if (dominantLanguage != null && dominantLangAttr != null) {
+            attributes.add(new BlackboardAttribute(dominantLangAttr, 
+                    TikaLanguageDetectorFileIngestModuleFactory.getModuleName(), 
+                    LanguageDetectionCore.getDisplayName(dominantLanguage)));
+        }
+        if (parts != null && partLangAttr != null) {
+            for (EmbeddedPartDetector.Part part : parts) {
+                attributes.add(new BlackboardAttribute(partLangAttr, 
+                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName(), 
+                        formatPart(part)));
+            }
+        }
+        if (spans != null && segmentLangAttr != null) {
+            for (LanguageSegmenter.Span span : spans) {
+                attributes.add(new BlackboardAttribute(segmentLangAttr, 
+                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName(), 
+                        formatSpan(span)));
+            }
+        }
         
-        if (LANG_LOOKUP.containsKey(result.getLanguage())){
-            return LANG_LOOKUP.get(result.getLanguage());
-        } else {
-            return result.getLanguage();
+        // Add the to the general info artifact for the file. In a
+        // real module, you would likely have more complex data types 
+        // and be making more specific artifacts.
+        //BlackboardArtifact art = file.getGenInfoArtifact();
+        // The batcher commits the artifact together with others in one 
+        // transaction and fires a single event for the whole batch.
+        batcher.add(file, BlackboardArtifact.ARTIFACT_TYPE.TSK_INTERESTING_FILE_HIT, attributes);
+    }
+
+    /**
+     * Formats the language of an embedded document, marking nested parts
+     * with one "&gt; " per level below the first.
+     */
+    private static String formatPart(EmbeddedPartDetector.Part part) {
+        StringBuilder sb = new StringBuilder();
+        for (int level = 1; level < part.depth; level++) {
+            sb.append("> "); //NON-NLS
         }
+        return sb.append(String.format("%s: %s (%.2f, %d chars)", //NON-NLS
+                part.name, LanguageDetectionCore.getDisplayName(part.language), part.score, part.characters)).toString();
     }
-    
-    // ref: https://github.com/apache/tika/blob/master/tika-core/src/main/resources/org/apache/tika/language/tika.language.properties
-    static void initLookupMap(HashMap<String,String> langLookup){
-        langLookup.put("be", "Belarusian");
-        langLookup.put("ca", "Catalan");
-        langLookup.put("da", "Danish");
-        langLookup.put("de", "German");
-        langLookup.put("eo", "Esperanto");
-        langLookup.put("et", "Estonian");
-        langLookup.put("el", "Greek");
-        langLookup.put("en", "English");
-        langLookup.put("es", "Spanish");
-        langLookup.put("fi", "Finnish");
-        langLookup.put("fr", "French");
-        langLookup.put("fa", "Persian");
-        langLookup.put("gl", "Galician");
-        langLookup.put("hu", "Hungarian");
-        langLookup.put("is", "Icelandic");
-        langLookup.put("it", "Italian");
-        langLookup.put("lt", "Lithuanian");
-        langLookup.put("nl", "Dutch");
-        langLookup.put("no", "Norwegian");
-        langLookup.put("pl", "Polish");
-        langLookup.put("pt", "Portuguese");
-        langLookup.put("ro", "Romanian");
-        langLookup.put("ru", "Russian");
-        langLookup.put("sk", "Slovakian");
-        langLookup.put("sl", "Slovenian");
-        langLookup.put("sv", "Swedish");
-        langLookup.put("th", "Thai");
-        langLookup.put("uk", "Ukrainian");
+
+    /**
+     * Formats a language span as its share of the text, its character range
+     * and its confidence.
+     */
+    private static String formatSpan(LanguageSegmenter.Span span) {
+        return String.format("%s: %.0f%% (chars %d-%d, %.2f)", //NON-NLS
+                LanguageDetectionCore.getDisplayName(span.language), span.proportion * 100, span.start, span.end, span.confidence);
     }
-    
+
     /**
-     * Update the match time total and increment number of files processed for
-     * this ingest job.
+     * Gets or adds the custom attribute types of the per part and segment 
+     * results in the case database.
      *
-     * @param jobId        The ingest job identifier.
-     * @param matchTimeInc Amount of time to add.
+     * @param caseDb The case database.
+     *
+     * @throws TskCoreException If the attribute types could not be added.
      */
-    private static synchronized void addToTotals(long jobId, long matchTimeInc) {
-        IngestJobTotals ingestJobTotals = totalsForIngestJobs.get(jobId);
-        if (ingestJobTotals == null) {
-            ingestJobTotals = new IngestJobTotals();
-            totalsForIngestJobs.put(jobId, ingestJobTotals);
+    private static void initLanguageAttributeTypes(SleuthkitCase caseDb) throws TskCoreException {
+        dominantLangAttr = getOrAddAttributeType(caseDb, DOMINANT_LANG_ATTR_NAME, "Dominant Language");
+        partLangAttr = getOrAddAttributeType(caseDb, PART_LANG_ATTR_NAME, "Embedded Part Language");
+        segmentLangAttr = getOrAddAttributeType(caseDb, SEGMENT_LANG_ATTR_NAME, "Language Segment");
+    }
+
+    private static BlackboardAttribute.Type getOrAddAttributeType(SleuthkitCase caseDb, String name, 
+            String displayName) throws TskCoreException {
+        try {
+            return caseDb.addArtifactAttributeType(name, 
+                    BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.STRING, displayName);
+        } catch (TskDataException ex) {
+            // Added by an earlier ingest job of the case.
+            return caseDb.getAttributeType(name);
         }
+    }
 
-        ingestJobTotals.matchTime += matchTimeInc;
-        ingestJobTotals.numFiles++;
-        totalsForIngestJobs.put(jobId, ingestJobTotals);
+    @Override
+    public void shutDown() {
+        // This method is thread-safe with per ingest job reference counted
+        // management of shared data.
+        //reportBlackboardPostCount(context.getJobId());
+        Long refCount = REF_COUNTER.decrementAndGet(jobId);
+        if (refCount == 0) {
+            // The last module instance of the job waits for the pipeline to
+            // commit everything, while it still holds the language model.
+            DetectionPipeline.drain(jobId);
+            LanguageArtifactBatcher.close(jobId);
+            IngestJobLog.close(jobId);
+            if (settings.useResultCache() && settings.persistResultCache()) {
+                LanguageResultCache.getInstance().releasePersistentTier();
+            }
+            IngestJobMetrics metrics = IngestJobMetrics.remove(jobId);
+            if (metrics != null) {
+                String msgText = String.format("Tika Language Detector Results");
+                IngestMessage message = IngestMessage.createMessage(
+                        IngestMessage.MessageType.INFO,
+                        TikaLanguageDetectorFileIngestModuleFactory.getModuleName(),
+                        msgText,
+                        metrics.toHtml(TikaLanguageDetectorFileIngestModuleFactory.getModuleName(),
+                                settings.useResultCache()));
+                IngestServices.getInstance().postMessage(message);
+            }
+        }
+        
+        if (detector != null) {
+            detector = null;
+            LanguageModelPool.release(jobId);
+        }
     }
-    
-    private static class IngestJobTotals {
-        long matchTime = 0;
-        long numFiles = 0;
+
+    /**
+     * Checks whether a file is one of the document types of the job.
+     *
+     * @param file The file.
+     *
+     * @return True if the file should be parsed.
+     *
+     * @throws TskCoreException If the file header could not be read.
+     * @throws IOException      If an office container could not be read.
+     */
+    private boolean isDocument(AbstractFile file) throws TskCoreException, IOException {
+        if (file.getSize() == 0) {
+            return false;
+        }
+        String mimeType = file.getMIMEType();
+        if (mimeType != null && !mimeType.isEmpty()) {
+            return documentFilter.acceptsMimeType(mimeType);
+        }
+        int length = file.read(sniffBuffer, 0, Math.min(sniffBuffer.length, file.getSize()));
+        try (TikaInputStream content = TikaInputStream.get(new ReadContentInputStream(file))) {
+            return documentFilter.accepts(sniffBuffer, length, content);
+        }
     }
-}    
\ No newline at end of file
+}
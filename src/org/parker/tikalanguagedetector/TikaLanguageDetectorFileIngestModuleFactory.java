@@ -42,6 +42,7 @@ import org.sleuthkit.autopsy.ingest.FileIngestModule;
 import org.sleuthkit.autopsy.ingest.IngestModuleFactory;
 import org.sleuthkit.autopsy.ingest.IngestModuleFactoryAdapter;
 import org.sleuthkit.autopsy.ingest.IngestModuleIngestJobSettings;
+import org.sleuthkit.autopsy.ingest.IngestModuleIngestJobSettingsPanel;
 
 @ServiceProvider(service = IngestModuleFactory.class) // Sample is discarded at runtime 
 public class TikaLanguageDetectorFileIngestModuleFactory extends IngestModuleFactoryAdapter {
@@ -109,6 +110,48 @@ public class TikaLanguageDetectorFileIngestModuleFactory extends IngestModuleFac
         return true;
     }
     
+    /**
+     * Gets the default per ingest job settings for instances of the family of
+     * ingest modules the factory creates.
+     *
+     * @return The default ingest job settings.
+     */
+    @Override
+    public IngestModuleIngestJobSettings getDefaultIngestJobSettings() {
+        return new TikaLanguageDetectorIngestJobSettings();
+    }
+    
+    /**
+     * Queries the factory to determine if it provides a user interface panel
+     * to allow a user to change settings that are used by instances of the
+     * family of ingest modules the factory creates.
+     *
+     * @return True, the candidate languages, minimum confidence and short
+     *         text mode are chosen per ingest job.
+     */
+    @Override
+    public boolean hasIngestJobSettingsPanel() {
+        return true;
+    }
+
+    /**
+     * Gets a user interface panel that allows a user to change settings that
+     * are used by instances of the family of ingest modules the factory
+     * creates.
+     *
+     * @param settings The initial settings for the panel.
+     *
+     * @return The settings panel.
+     */
+    @Override
+    public IngestModuleIngestJobSettingsPanel getIngestJobSettingsPanel(IngestModuleIngestJobSettings settings) {
+        if (!(settings instanceof TikaLanguageDetectorIngestJobSettings)) {
+            throw new IllegalArgumentException(
+                    "Expected settings argument to be instanceof TikaLanguageDetectorIngestJobSettings"); //NON-NLS
+        }
+        return new TikaLanguageDetectorIngestJobSettingsPanel((TikaLanguageDetectorIngestJobSettings) settings);
+    }
+    
     /**
      * Creates a file ingest module instance.
      * <p>
@@ -140,6 +183,10 @@ public class TikaLanguageDetectorFileIngestModuleFactory extends IngestModuleFac
      */
     @Override
     public FileIngestModule createFileIngestModule(IngestModuleIngestJobSettings ingestOptions) {
-        return new TikaLanguageDetectorFileIngestModule();
+        if (!(ingestOptions instanceof TikaLanguageDetectorIngestJobSettings)) {
+            throw new IllegalArgumentException(
+                    "Expected settings argument to be instanceof TikaLanguageDetectorIngestJobSettings"); //NON-NLS
+        }
+        return new TikaLanguageDetectorFileIngestModule((TikaLanguageDetectorIngestJobSettings) ingestOptions);
     }
 }
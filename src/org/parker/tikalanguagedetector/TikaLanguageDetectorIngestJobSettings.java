@@ -0,0 +1,74 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import org.sleuthkit.autopsy.ingest.IngestModuleIngestJobSettings;
+
+/**
+ * Ingest job options for the Tika language detector ingest module instances.
+ * The options themselves are kept by {@link LanguageDetectionSettings}.
+ */
+final class TikaLanguageDetectorIngestJobSettings extends LanguageDetectionSettings
+        implements IngestModuleIngestJobSettings {
+
+    private static final long serialVersionUID = 1L;
+
+    TikaLanguageDetectorIngestJobSettings() {
+    }
+
+    /**
+     * Constructs a copy of other ingest job settings.
+     *
+     * @param other The settings to copy.
+     */
+    TikaLanguageDetectorIngestJobSettings(TikaLanguageDetectorIngestJobSettings other) {
+        super(other);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long getVersionNumber() {
+        return serialVersionUID;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        if (fields.getObjectStreamClass().getFields().length > 0) {
+            // Saved before the options moved to LanguageDetectionSettings,
+            // which then has no data of its own in the stream.
+            readSettings(fields);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.DefaultListModel;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextArea;
+import javax.swing.ListSelectionModel;
+import javax.swing.SpinnerNumberModel;
+
+import org.openide.util.NbBundle;
+import org.sleuthkit.autopsy.ingest.IngestModuleIngestJobSettings;
+import org.sleuthkit.autopsy.ingest.IngestModuleIngestJobSettingsPanel;
+
+/**
+ * Ingest job settings panel for the Tika language detector. One tab chooses
+ * the candidate languages, the minimum confidence and the short text mode,
+ * one which files are parsed and how much of them, and one how files are
+ * scheduled and cached. The other settings are carried over unchanged.
+ */
+class TikaLanguageDetectorIngestJobSettingsPanel extends IngestModuleIngestJobSettingsPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TikaLanguageDetectorIngestJobSettings settings;
+    private final JList<LanguageItem> languageList;
+    private final JSpinner minConfidenceSpinner;
+    private final JCheckBox shortTextCheckBox;
+    private final JCheckBox pipelineCheckBox;
+    private final JCheckBox deferCheckBox;
+    private final JSpinner fastPathSpinner;
+    private final JTextArea priorityPathsArea;
+    private final JCheckBox useCacheCheckBox;
+    private final JCheckBox persistCacheCheckBox;
+    private final JTextArea mimeTypesArea;
+    private final JSpinner maxFileSpinner;
+    private final JSpinner parseTimeoutSpinner;
+    private final JSpinner maxExtractedSpinner;
+    private final JSpinner maxDepthSpinner;
+    private final JComboBox<String> embeddedModeComboBox;
+    private final JCheckBox sampleCheckBox;
+    private final JCheckBox segmentCheckBox;
+
+    TikaLanguageDetectorIngestJobSettingsPanel(TikaLanguageDetectorIngestJobSettings settings) {
+        this.settings = settings;
+
+        DefaultListModel<LanguageItem> languages = new DefaultListModel<>();
+        for (String isoCode : LanguageModelPool.getBuiltInLanguages()) {
+            languages.addElement(new LanguageItem(isoCode));
+        }
+        languageList = new JList<>(languages);
+        languageList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        languageList.setVisibleRowCount(10);
+        List<String> candidates = settings.getCandidateLanguages();
+        for (int i = 0; i < languages.size(); i++) {
+            if (candidates.contains(languages.get(i).isoCode)) {
+                languageList.addSelectionInterval(i, i);
+            }
+        }
+
+        minConfidenceSpinner = new JSpinner(new SpinnerNumberModel(
+                (double) settings.getMinConfidence(), 0.0, 1.0, 0.05));
+        minConfidenceSpinner.setPreferredSize(new Dimension(70, minConfidenceSpinner.getPreferredSize().height));
+        shortTextCheckBox = new JCheckBox(getMessage("shortTextCheckBox.text"), settings.shortTextMode()); //NON-NLS
+
+        pipelineCheckBox = new JCheckBox(getMessage("pipelineCheckBox.text"), settings.usePipeline()); //NON-NLS
+        deferCheckBox = new JCheckBox(getMessage("deferCheckBox.text"), settings.deferScheduling()); //NON-NLS
+        fastPathSpinner = new JSpinner(new SpinnerNumberModel(
+                Long.valueOf(settings.getFastPathMaxBytes() / 1024), Long.valueOf(0),
+                Long.valueOf(1024 * 1024), Long.valueOf(16)));
+        priorityPathsArea = new JTextArea(joinLines(settings.getPriorityPaths()), 5, 30);
+        useCacheCheckBox = new JCheckBox(getMessage("useCacheCheckBox.text"), settings.useResultCache()); //NON-NLS
+        persistCacheCheckBox = new JCheckBox(getMessage("persistCacheCheckBox.text"), settings.persistResultCache()); //NON-NLS
+
+        mimeTypesArea = new JTextArea(joinLines(settings.getMimeTypes()), 6, 30);
+        // Sizes and times are shown in MiB and seconds, -1 is no limit.
+        maxFileSpinner = newLimitSpinner(toUnits(settings.getMaxFileBytes(), 1024 * 1024), 1024 * 1024, 16);
+        parseTimeoutSpinner = newLimitSpinner(toUnits(settings.getParseTimeoutMillis(), 1000), 24 * 60 * 60, 10);
+        maxExtractedSpinner = newLimitSpinner(settings.getMaxExtractedCharacters(), Long.MAX_VALUE, 1000 * 1000);
+        maxDepthSpinner = newLimitSpinner(settings.getMaxEmbeddedDepth(), 100, 1);
+        embeddedModeComboBox = new JComboBox<>();
+        for (LanguageDetectionSettings.EmbeddedMode mode
+                : LanguageDetectionSettings.EmbeddedMode.values()) {
+            embeddedModeComboBox.addItem(getMessage("embeddedMode." + mode.name())); //NON-NLS
+        }
+        embeddedModeComboBox.setSelectedIndex(settings.getEmbeddedMode().ordinal());
+        sampleCheckBox = new JCheckBox(getMessage("sampleCheckBox.text"), settings.sampleDocument()); //NON-NLS
+        segmentCheckBox = new JCheckBox(getMessage("segmentCheckBox.text"), settings.segmentDocument()); //NON-NLS
+
+        initComponents();
+    }
+
+    private void initComponents() {
+        JPanel languagePanel = new JPanel(new BorderLayout(0, 4));
+        languagePanel.add(new JLabel(getMessage("languageList.text")), BorderLayout.NORTH); //NON-NLS
+        languagePanel.add(new JScrollPane(languageList), BorderLayout.CENTER);
+
+        JPanel confidencePanel = new JPanel(new FlowLayout(FlowLayout.LEADING, 0, 0));
+        confidencePanel.add(new JLabel(getMessage("minConfidenceSpinner.text"))); //NON-NLS
+        confidencePanel.add(minConfidenceSpinner);
+
+        JPanel optionsPanel = new JPanel();
+        optionsPanel.setLayout(new BoxLayout(optionsPanel, BoxLayout.PAGE_AXIS));
+        confidencePanel.setAlignmentX(LEFT_ALIGNMENT);
+        shortTextCheckBox.setAlignmentX(LEFT_ALIGNMENT);
+        optionsPanel.add(confidencePanel);
+        optionsPanel.add(shortTextCheckBox);
+
+        JPanel languagesTab = new JPanel(new BorderLayout(0, 8));
+        languagesTab.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        languagesTab.add(languagePanel, BorderLayout.CENTER);
+        languagesTab.add(optionsPanel, BorderLayout.SOUTH);
+
+        JPanel schedulingTab = newFormPanel();
+        addRow(schedulingTab, null, pipelineCheckBox);
+        addRow(schedulingTab, null, deferCheckBox);
+        addRow(schedulingTab, getMessage("fastPathSpinner.text"), fastPathSpinner); //NON-NLS
+        addRow(schedulingTab, getMessage("priorityPathsArea.text"), new JScrollPane(priorityPathsArea)); //NON-NLS
+
+        addRow(schedulingTab, null, useCacheCheckBox);
+        addRow(schedulingTab, null, persistCacheCheckBox);
+
+        JPanel extractionTab = newFormPanel();
+        addRow(extractionTab, getMessage("mimeTypesArea.text"), new JScrollPane(mimeTypesArea)); //NON-NLS
+        addRow(extractionTab, getMessage("maxFileSpinner.text"), maxFileSpinner); //NON-NLS
+        addRow(extractionTab, getMessage("parseTimeoutSpinner.text"), parseTimeoutSpinner); //NON-NLS
+        addRow(extractionTab, getMessage("maxExtractedSpinner.text"), maxExtractedSpinner); //NON-NLS
+        addRow(extractionTab, getMessage("maxDepthSpinner.text"), maxDepthSpinner); //NON-NLS
+        addRow(extractionTab, getMessage("embeddedModeComboBox.text"), embeddedModeComboBox); //NON-NLS
+        addRow(extractionTab, null, sampleCheckBox);
+        addRow(extractionTab, null, segmentCheckBox);
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab(getMessage("languagesTab.text"), languagesTab); //NON-NLS
+        tabs.addTab(getMessage("extractionTab.text"), alignTop(extractionTab)); //NON-NLS
+        tabs.addTab(getMessage("schedulingTab.text"), alignTop(schedulingTab)); //NON-NLS
+        setLayout(new BorderLayout());
+        add(tabs, BorderLayout.CENTER);
+    }
+
+    private static JPanel newFormPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        return panel;
+    }
+
+    private static JPanel alignTop(JPanel formPanel) {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(formPanel, BorderLayout.NORTH);
+        return panel;
+    }
+
+    /**
+     * Adds a row to a form panel, with the label above the component.
+     *
+     * @param panel     A panel created by newFormPanel.
+     * @param label     The label text, or null for none.
+     * @param component The component.
+     */
+    private static void addRow(JPanel panel, String label, JComponent component) {
+        GridBagConstraints constraints = new GridBagConstraints();
+        constraints.gridx = 0;
+        constraints.weightx = 1.0;
+        constraints.anchor = GridBagConstraints.FIRST_LINE_START;
+        constraints.insets = new Insets(0, 0, 4, 0);
+        if (label != null) {
+            panel.add(new JLabel(label), constraints);
+        }
+        constraints.fill = (component instanceof JScrollPane) ? GridBagConstraints.HORIZONTAL : GridBagConstraints.NONE;
+        panel.add(component, constraints);
+    }
+
+    private static JSpinner newLimitSpinner(long value, long maximum, long step) {
+        JSpinner spinner = new JSpinner(new SpinnerNumberModel(Long.valueOf(Math.max(-1, Math.min(value, maximum))),
+                Long.valueOf(-1), Long.valueOf(maximum), Long.valueOf(step)));
+        spinner.setPreferredSize(new Dimension(120, spinner.getPreferredSize().height));
+        return spinner;
+    }
+
+    private static long toUnits(long value, long unit) {
+        return (value < 0) ? -1 : value / unit;
+    }
+
+    private static long fromUnits(JSpinner spinner, long unit) {
+        long value = ((Number) spinner.getValue()).longValue();
+        return (value < 0) ? -1 : value * unit;
+    }
+
+    private static String joinLines(List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(text.length() > 0 ? "\n" : "").append(line);
+        }
+        return text.toString();
+    }
+
+    private static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the ingest job settings for an ingest module. The settings the
+     * panel was constructed with are copied, not changed.
+     *
+     * @return The ingest job settings.
+     */
+    @Override
+    public IngestModuleIngestJobSettings getSettings() {
+        TikaLanguageDetectorIngestJobSettings newSettings = new TikaLanguageDetectorIngestJobSettings(settings);
+        List<String> candidates = new ArrayList<>();
+        for (LanguageItem item : languageList.getSelectedValuesList()) {
+            candidates.add(item.isoCode);
+        }
+        newSettings.setCandidateLanguages(candidates);
+        newSettings.setMinConfidence(((Number) minConfidenceSpinner.getValue()).floatValue());
+        newSettings.setShortTextMode(shortTextCheckBox.isSelected());
+        newSettings.setUsePipeline(pipelineCheckBox.isSelected());
+        newSettings.setDeferScheduling(deferCheckBox.isSelected());
+        newSettings.setFastPathMaxBytes(((Number) fastPathSpinner.getValue()).longValue() * 1024);
+        newSettings.setPriorityPaths(splitLines(priorityPathsArea.getText()));
+        newSettings.setUseResultCache(useCacheCheckBox.isSelected());
+        newSettings.setPersistResultCache(persistCacheCheckBox.isSelected());
+        newSettings.setMimeTypes(splitLines(mimeTypesArea.getText()));
+        newSettings.setMaxFileBytes(fromUnits(maxFileSpinner, 1024 * 1024));
+        newSettings.setParseTimeoutMillis(fromUnits(parseTimeoutSpinner, 1000));
+        newSettings.setMaxExtractedCharacters(fromUnits(maxExtractedSpinner, 1));
+        newSettings.setMaxEmbeddedDepth((int) fromUnits(maxDepthSpinner, 1));
+        newSettings.setEmbeddedMode(LanguageDetectionSettings.EmbeddedMode.values()[
+                embeddedModeComboBox.getSelectedIndex()]);
+        newSettings.setSampleDocument(sampleCheckBox.isSelected());
+        newSettings.setSegmentDocument(segmentCheckBox.isSelected());
+        return newSettings;
+    }
+
+    private static String getMessage(String key) {
+        return NbBundle.getMessage(TikaLanguageDetectorIngestJobSettingsPanel.class,
+                "TikaLanguageDetectorIngestJobSettingsPanel." + key); //NON-NLS
+    }
+
+    /**
+     * A language of the list, shown by its name and ISO code.
+     */
+    private static final class LanguageItem {
+
+        final String isoCode;
+        private final String displayName;
+
+        LanguageItem(String isoCode) {
+            this.isoCode = isoCode;
+            this.displayName = LanguageDetectionCore.getDisplayName(isoCode) + " (" + isoCode + ")"; //NON-NLS
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+}
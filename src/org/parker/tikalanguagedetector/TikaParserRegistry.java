@@ -0,0 +1,164 @@
+/*
+ * Sample module in the public domain.  Feel free to use this as a template
+ * for your modules.
+ * 
+ *  Contact: Brian Carrier [carrier <at> sleuthkit [dot] org]
+ *
+ *  This is free and unencumbered software released into the public domain.
+ *  
+ *  Anyone is free to copy, modify, publish, use, compile, sell, or
+ *  distribute this software, either in source code form or as a compiled
+ *  binary, for any purpose, commercial or non-commercial, and by any
+ *  means.
+ *  
+ *  In jurisdictions that recognize copyright laws, the author or authors
+ *  of this software dedicate any and all copyright interest in the
+ *  software to the public domain. We make this dedication for the benefit
+ *  of the public at large and to the detriment of our heirs and
+ *  successors. We intend this dedication to be an overt act of
+ *  relinquishment in perpetuity of all present and future rights to this
+ *  software under copyright law.
+ *  
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE. 
+ */
+package org.parker.tikalanguagedetector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.CompositeDetector;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.mime.MimeTypes;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.microsoft.POIFSContainerDetector;
+import org.apache.tika.parser.pkg.ZipContainerDetector;
+
+/**
+ * Process-wide registry of thread-safe Tika parsers, so that the parser
+ * registry, service loading and MIME detector set up happen once rather than
+ * for every file.
+ * <p>
+ * By default only the parsers for the formats the module handles are
+ * instantiated, by class name, so parsers for unrelated formats are never
+ * class-loaded. Additional parsers can be configured per ingest job. The full
+ * Tika configuration is still available for jobs that ask for all parsers.
+ */
+final class TikaParserRegistry {
+
+    /**
+     * Parsers for OOXML, OLE2 and PDF documents.
+     */
+    static final List<String> DEFAULT_PARSER_CLASSES = Collections.unmodifiableList(Arrays.asList(
+            "org.apache.tika.parser.microsoft.ooxml.OOXMLParser", //NON-NLS
+            "org.apache.tika.parser.microsoft.OfficeParser", //NON-NLS
+            "org.apache.tika.parser.pdf.PDFParser")); //NON-NLS
+
+    private static final ConcurrentMap<Collection<String>, AutoDetectParser> PARSERS = new ConcurrentHashMap<>();
+    private static final Object FULL_PARSER_LOCK = new Object();
+    private static volatile AutoDetectParser fullParser = null;
+
+    private TikaParserRegistry() {
+    }
+
+    /**
+     * Gets the shared parser for the default formats plus the given parser
+     * classes, building it on first use.
+     *
+     * @param extraParserClasses Fully qualified names of additional Tika
+     *                           parsers.
+     *
+     * @return The shared, thread-safe parser.
+     *
+     * @throws TikaException If a parser class could not be instantiated.
+     */
+    static AutoDetectParser getParser(Collection<String> extraParserClasses) throws TikaException {
+        TreeSet<String> key = new TreeSet<>(DEFAULT_PARSER_CLASSES);
+        key.addAll(extraParserClasses);
+        AutoDetectParser parser = PARSERS.get(key);
+        if (parser == null) {
+            // Two threads may build the same parser at once; only the first
+            // one stored is ever used.
+            parser = createParser(key);
+            AutoDetectParser existing = PARSERS.putIfAbsent(key, parser);
+            if (existing != null) {
+                parser = existing;
+            }
+        }
+        return parser;
+    }
+
+    /**
+     * Gets the shared parser built from the full default Tika configuration.
+     *
+     * @return The shared, thread-safe parser.
+     */
+    static AutoDetectParser getFullParser() {
+        AutoDetectParser parser = fullParser;
+        if (parser == null) {
+            synchronized (FULL_PARSER_LOCK) {
+                parser = fullParser;
+                if (parser == null) {
+                    parser = new AutoDetectParser(TikaConfig.getDefaultConfig());
+                    fullParser = parser;
+                }
+            }
+        }
+        return parser;
+    }
+
+    /**
+     * Creates the parse context of one file, set up to parse embedded
+     * documents with the given parser. Parsers and embedded document
+     * extractors put state into the context, so it must not be reused for
+     * another file.
+     *
+     * @param parser The parser the document is parsed with.
+     *
+     * @return A new parse context.
+     */
+    static ParseContext newParseContext(Parser parser) {
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser);
+        return context;
+    }
+
+    private static AutoDetectParser createParser(Collection<String> parserClasses) throws TikaException {
+        List<Parser> parsers = new ArrayList<>();
+        ClassLoader loader = TikaParserRegistry.class.getClassLoader();
+        for (String className : parserClasses) {
+            try {
+                parsers.add((Parser) Class.forName(className, true, loader).newInstance());
+            } catch (ClassNotFoundException | InstantiationException
+                    | IllegalAccessException | ClassCastException ex) {
+                throw new TikaException("Unable to create parser " + className, ex); //NON-NLS
+            }
+        }
+
+        // Magic based detection plus the container detectors that tell the
+        // OLE2 and OOXML formats apart.
+        MimeTypes mimeTypes = MimeTypes.getDefaultMimeTypes();
+        List<Detector> detectors = new ArrayList<>();
+        detectors.add(new POIFSContainerDetector());
+        detectors.add(new ZipContainerDetector());
+        detectors.add(mimeTypes);
+        Detector detector = new CompositeDetector(mimeTypes.getMediaTypeRegistry(), detectors);
+
+        return new AutoDetectParser(detector, parsers.toArray(new Parser[parsers.size()]));
+    }
+}